@@ -374,7 +374,7 @@ public abstract class Drafter {
 		if(commands[i].invalid())
 		    System.err.println(commands[i].usage(_COLOR_ENABLED()));
 	
-	System.exit(exit);
+	FAIL(exit);
     }
 
     /**
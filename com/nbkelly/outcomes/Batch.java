@@ -0,0 +1,250 @@
+package com.nbkelly.outcomes;
+
+/* imports */
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Works out the standings and cut odds of many tournaments in one JVM, as when going back over
+ * every concluded tournament after a rule change.
+ * <p>
+ * The manifest has a tournament on each line: its pairings file (relative to the manifest),
+ * round count and cut size. Blank lines, and lines starting with #, are skipped:
+ * <pre>
+ *   # pairings           rounds  cut
+ *   regionals.txt        7       8
+ *   store-champs.txt     4       4
+ * </pre>
+ * Every tournament is submitted to one fork/join pool, the largest first, and each walk is
+ * split into tasks just as a parallel run splits it. A worker with no tournament left to start
+ * steals tasks from the walks still going, so small tournaments fill the gaps around large
+ * ones, and the pool stays busy until the last walk is done.
+ * <p>
+ * Each tournament is written as a line of JSON as soon as it is done, holding the same
+ * standings and odds documents the server gives - the odds over all outcomes, and with 241s
+ * enforced - and how long it waited and ran for. The last line gives the totals, where busy
+ * is the sum of the times each tournament ran for:
+ * <pre>
+ *   {"file":...,"rounds":7,"cut":8,"waited":0.01,"seconds":2.3,"standings":{...},"odds":{...},
+ *    "odds241":{...}}
+ *   {"file":...,"rounds":4,"cut":4,"error":...}
+ *   {"tournaments":2,"failed":1,"threads":8,"seconds":2.32,"busy":2.3}
+ * </pre>
+ */
+class Batch {
+    /** a tournament from the manifest */
+    private static class Entry {
+	final Path file;
+	final int rounds;
+	final int cut;
+
+	Outcomes.Parsed parsed = null;
+	String error = null;
+	/** System.nanoTime() when the tournament was submitted, started and done */
+	long submitted;
+	long started;
+	long done;
+
+	Entry(Path file, int rounds, int cut) {
+	    this.file = file;
+	    this.rounds = rounds;
+	    this.cut = cut;
+	}
+
+	/**
+	 * Gets the number of open tables, which the size of the walk grows with.
+	 */
+	int size() {
+	    return parsed == null ? 0 : parsed.tournament.openTables();
+	}
+
+	double seconds() {
+	    return (done - started) / 1e9;
+	}
+
+	String json(String result) {
+	    return String.format("{\"file\":%s,\"rounds\":%d,\"cut\":%d,%s}",
+				 Server.quote(file.toString()), rounds, cut, result);
+	}
+    }
+
+    private final Outcomes outcomes = new Outcomes();
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a batch running on its own pool.
+     *
+     * @param threads the number of worker threads
+     */
+    Batch(int threads) {
+	pool = new ForkJoinPool(threads);
+	outcomes.threads = threads;
+	outcomes.pool = pool;
+    }
+
+    /**
+     * Reads a manifest.
+     *
+     * @param manifest the manifest file
+     * @return its tournaments, in order
+     * @throws IOException if the manifest can't be read
+     * @throws IllegalArgumentException if a line of the manifest can't be read
+     */
+    static ArrayList<Entry> read(Path manifest) throws IOException {
+	var entries = new ArrayList<Entry>();
+	var base = manifest.toAbsolutePath().getParent();
+	var lines = Files.readAllLines(manifest);
+	for(int i = 0; i < lines.size(); i++) {
+	    var line = lines.get(i).trim();
+	    if(line.isEmpty() || line.startsWith("#"))
+		continue;
+
+	    var fields = line.split("\\s+");
+	    try {
+		if(fields.length != 3)
+		    throw new NumberFormatException();
+
+		int rounds = Integer.parseInt(fields[1]);
+		int cut = Integer.parseInt(fields[2]);
+		//the same bounds as the commands
+		if(rounds < 1 || rounds > 10 || cut < 1 || cut > 10)
+		    throw new NumberFormatException();
+
+		entries.add(new Entry(base.resolve(fields[0]), rounds, cut));
+	    }
+	    catch(NumberFormatException e) {
+		throw new IllegalArgumentException(String.format("%s:%d: expected a pairings file, "
+								 + "rounds (1-10) and cut size (1-10)",
+								 manifest, i + 1));
+	    }
+	}
+
+	return entries;
+    }
+
+    /**
+     * Works out every tournament in a manifest, writing each as it is done, then the totals.
+     *
+     * @param entries the tournaments
+     * @return the number of tournaments that failed
+     */
+    int run(ArrayList<Entry> entries) {
+	long start = System.nanoTime();
+
+	//reading and parsing is quick next to walking, and tells us how big each walk is
+	for(var entry : entries) {
+	    try {
+		entry.parsed = outcomes.parse(new ArrayList<>(Files.readAllLines(entry.file)),
+					      entry.rounds);
+	    }
+	    catch(IOException e) {
+		entry.error = "could not read the pairings: " + e;
+	    }
+	    catch(RuntimeException e) {
+		entry.error = "could not parse the pairings: " + e;
+	    }
+	}
+
+	//the largest first, so that no large walk is left to run on its own at the end
+	var order = new ArrayList<>(entries);
+	order.sort(Comparator.comparingInt(Entry::size).reversed());
+
+	var tasks = new ArrayList<ForkJoinTask<?>>();
+	for(var entry : order) {
+	    entry.submitted = System.nanoTime();
+	    tasks.add(pool.submit(() -> System.out.println(answer(entry))));
+	}
+
+	for(var task : tasks)
+	    task.join();
+	pool.shutdown();
+
+	int failed = 0;
+	double busy = 0;
+	for(var entry : entries) {
+	    if(entry.error != null)
+		failed++;
+	    busy += entry.seconds();
+	}
+
+	System.out.printf("{\"tournaments\":%d,\"failed\":%d,\"threads\":%d,\"seconds\":%s,"
+			  + "\"busy\":%s}%n",
+			  entries.size(), failed, pool.getParallelism(),
+			  Server.number((System.nanoTime() - start) / 1e9), Server.number(busy));
+	return failed;
+    }
+
+    /**
+     * Works out one tournament.
+     *
+     * @return its line of output
+     */
+    private String answer(Entry entry) {
+	entry.started = System.nanoTime();
+	try {
+	    if(entry.error != null)
+		return entry.json("\"error\":" + Server.quote(entry.error));
+
+	    var t = entry.parsed.tournament;
+	    boolean open = t.openTables() > 0;
+	    var all = open ? outcomes.run(new Engine(t, entry.cut, false)) : null;
+	    var twoFourOne = open ? outcomes.run(new Engine(t, entry.cut, true)) : null;
+	    var odds = Server.odds(outcomes, t, entry.cut, "all", all);
+	    var odds241 = Server.odds(outcomes, t, entry.cut, "241", twoFourOne);
+	    entry.done = System.nanoTime();
+
+	    return entry.json(String.format("\"waited\":%s,\"seconds\":%s,\"standings\":%s,"
+					    + "\"odds\":%s,\"odds241\":%s",
+					    Server.number((entry.started - entry.submitted) / 1e9),
+					    Server.number(entry.seconds()),
+					    Server.standings(t, entry.cut), odds, odds241));
+	}
+	catch(RuntimeException e) {
+	    entry.error = e.toString();
+	    return entry.json("\"error\":" + Server.quote(entry.error));
+	}
+	finally {
+	    if(entry.done == 0)
+		entry.done = System.nanoTime();
+	}
+    }
+
+    public static void main(String[] argv) {
+	if(argv.length < 1 || argv.length > 2) {
+	    System.err.println("usage: java com.nbkelly.outcomes.Batch MANIFEST [THREADS]");
+	    System.exit(2);
+	}
+
+	int threads = Runtime.getRuntime().availableProcessors();
+	if(argv.length > 1) {
+	    try {
+		threads = Integer.parseInt(argv[1]);
+	    }
+	    catch(NumberFormatException e) {
+		threads = 0;
+	    }
+
+	    if(threads < 1 || threads > 1024) {
+		System.err.println("THREADS must be a number from 1 to 1024");
+		System.exit(2);
+	    }
+	}
+
+	ArrayList<Entry> entries;
+	try {
+	    entries = read(Path.of(argv[0]));
+	}
+	catch(IOException | IllegalArgumentException e) {
+	    System.err.println("Could not read the manifest: " + e.getMessage());
+	    System.exit(2);
+	    return;
+	}
+
+	System.exit(new Batch(threads).run(entries) > 0 ? 1 : 0);
+    }
+}
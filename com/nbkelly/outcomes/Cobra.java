@@ -0,0 +1,520 @@
+package com.nbkelly.outcomes;
+
+/* imports */
+import java.io.BufferedReader;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads a tournament straight from the JSON cobr.ai serves, instead of from a pairings file.
+ * <p>
+ * The source is a cobr.ai tournament id, the address of a tournament's JSON (on cobr.ai, or
+ * anything standing in for it), or the path of a copy of it. Only what the odds need is read -
+ * each player's name, and the players and scores at each table of each round - in one pass as
+ * it streams in, and it goes straight into the same opponent, score and open table maps a
+ * pairings file is parsed into. A table looks like this, where a player with no id is the
+ * bye, and a null score hasn't been reported:
+ * <pre>
+ *   {"player1": {"id": 12, "combinedScore": 6}, "player2": {"id": 40, "combinedScore": 0}}
+ * </pre>
+ * Sources are kept for the life of the JVM, so that reading one again (when watching, serving
+ * or answering the daemon) only does the work that has changed. The JSON isn't fetched again
+ * if the server says it hasn't changed since last time, nor a file read again if it hasn't
+ * been modified, and the pairings are only built again if a round has changed.
+ * <p>
+ * What is fetched over HTTP is also kept on disk, in the cache directory: the JSON as it was
+ * last fetched, and the ETag and Last-Modified it came with. A new JVM asks the server whether
+ * that copy is still current, and reads it from disk if it is, rather than fetching it again.
+ * The cache is only a cache, so if it can't be written, it is done without.
+ */
+class Cobra {
+    /** where cobr.ai serves the JSON of a tournament, by id */
+    static final String COBRA = "https://cobr.ai/tournaments/%s.json";
+    /** how long to wait for cobr.ai */
+    static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    /** a table of a round: the ids of its players (null for the bye), and their scores */
+    private static class Table {
+	Integer left;
+	Integer leftScore;
+	Integer right;
+	Integer rightScore;
+
+	@Override public boolean equals(Object o) {
+	    if(!(o instanceof Table))
+		return false;
+
+	    var table = (Table)o;
+	    return Objects.equals(left, table.left) && Objects.equals(leftScore, table.leftScore)
+		&& Objects.equals(right, table.right)
+		&& Objects.equals(rightScore, table.rightScore);
+	}
+
+	@Override public int hashCode() {
+	    return Objects.hash(left, leftScore, right, rightScore);
+	}
+    }
+
+    private static final ConcurrentHashMap<URI, Cobra> sources = new ConcurrentHashMap<>();
+
+    /** where the JSON is read from */
+    final URI uri;
+    /** the name of the tournament, as of the last read */
+    String name = null;
+    /** how many rounds the last read found changed, and how many the same as the read before */
+    int changed = 0;
+    int unchanged = 0;
+    /** true if the last read was of the copy in the cache */
+    boolean cached = false;
+
+    private HttpClient http = null;
+    private ArrayList<ArrayList<Table>> rounds = new ArrayList<>();
+    private HashMap<Integer, String> players = new HashMap<>();
+    /** what the server said about the version last read, or the file's modified time */
+    private String etag = null;
+    private String modified = null;
+    /** the pairings last built, and the number of rounds they were built from */
+    private Outcomes.Parsed last = null;
+    private int lastRounds = 0;
+
+    /** where the copy of the JSON and what the server said about it are kept, if anywhere */
+    private final Path copy;
+    private final Path validators;
+    /** true if the validators came from the cache, and its copy hasn't been read yet */
+    private boolean unread = false;
+
+    private Cobra(URI uri, Path cache) {
+	this.uri = uri;
+
+	if(cache == null || uri.getScheme().equals("file")) {
+	    copy = null;
+	    validators = null;
+	    return;
+	}
+
+	var key = digest(uri.toString());
+	copy = cache.resolve(key + ".json");
+	validators = cache.resolve(key + ".meta");
+	try {
+	    //the address, the ETag and Last-Modified, with an empty line for either not sent
+	    var lines = Files.readAllLines(validators);
+	    if(lines.size() == 3 && lines.get(0).equals(uri.toString()) && Files.exists(copy)) {
+		etag = lines.get(1).isEmpty() ? null : lines.get(1);
+		modified = lines.get(2).isEmpty() ? null : lines.get(2);
+		unread = etag != null || modified != null;
+	    }
+	}
+	catch(IOException e) {
+	    //nothing cached yet
+	}
+    }
+
+    /**
+     * Gets the tournament at a source, which is shared with everyone else reading it.
+     *
+     * @param source a cobr.ai tournament id, the address of a tournament's JSON, or the path
+     *               of a copy of it
+     * @param cache the directory to keep what is fetched over HTTP in, or null not to
+     * @return the tournament
+     * @throws IllegalArgumentException if the source isn't a valid address or path
+     */
+    static Cobra of(String source, Path cache) {
+	URI uri;
+	if(source.matches("[0-9]+"))
+	    uri = URI.create(String.format(COBRA, source));
+	else if(source.startsWith("http://") || source.startsWith("https://"))
+	    uri = URI.create(source);
+	else
+	    uri = Path.of(source).toAbsolutePath().toUri();
+
+	return sources.computeIfAbsent(uri, u -> new Cobra(u, cache));
+    }
+
+    /**
+     * Gets the directory what is fetched is cached in, unless another is given: under
+     * $XDG_CACHE_HOME, or ~/.cache if that isn't set.
+     */
+    static Path cache() {
+	var base = System.getenv("XDG_CACHE_HOME");
+	var root = base == null || base.isEmpty()
+	    ? Path.of(System.getProperty("user.home"), ".cache")
+	    : Path.of(base);
+	return root.resolve("anr-cut-check");
+    }
+
+    /**
+     * Reads the pairings of the swiss rounds, if they have changed since they were last read.
+     *
+     * @param outcomes what to build the pairings with
+     * @param roundCount the number of swiss rounds - any rounds after them are the cut
+     * @return the pairings, which are the same object as last time if nothing has changed
+     * @throws IOException if the tournament can't be fetched, or isn't valid JSON
+     */
+    synchronized Outcomes.Parsed fetch(Outcomes outcomes, int roundCount) throws IOException {
+	cached = false;
+	boolean read = uri.getScheme().equals("file") ? readFile() : readHttp();
+	if(!read) {
+	    changed = 0;
+	    unchanged = rounds.size();
+	    if(last != null && lastRounds == roundCount)
+		return last;
+	}
+
+	var pairings = new Outcomes.Parsed(null);
+	for(int r = 0; r < Math.min(roundCount, rounds.size()); r++)
+	    for(var table : rounds.get(r))
+		if(table.left != null || table.right != null)
+		    outcomes.table(pairings, player(table.left), table.leftScore,
+				   player(table.right), table.rightScore);
+
+	last = outcomes.intern(pairings, roundCount);
+	lastRounds = roundCount;
+	return last;
+    }
+
+    /**
+     * Reads the file, if it has been modified since it was last read.
+     *
+     * @return true if it was read
+     */
+    private boolean readFile() throws IOException {
+	var path = Path.of(uri);
+	var time = Files.getLastModifiedTime(path).toString();
+	if(time.equals(modified))
+	    return false;
+
+	try(var reader = Files.newBufferedReader(path)) {
+	    read(reader);
+	}
+
+	modified = time;
+	return true;
+    }
+
+    /**
+     * Fetches the JSON, unless the server says it hasn't changed since it was last fetched, or
+     * since the copy in the cache was.
+     *
+     * @return true if it was fetched, or read from the cache
+     */
+    private boolean readHttp() throws IOException {
+	if(http == null)
+	    http = HttpClient.newBuilder()
+		.connectTimeout(TIMEOUT)
+		.followRedirects(HttpClient.Redirect.NORMAL)
+		.build();
+
+	var request = HttpRequest.newBuilder(uri).timeout(TIMEOUT)
+	    .header("Accept", "application/json");
+	if(etag != null)
+	    request.header("If-None-Match", etag);
+	if(modified != null)
+	    request.header("If-Modified-Since", modified);
+
+	HttpResponse<InputStream> response;
+	try {
+	    response = http.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+	}
+	catch(InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new IOException("Interrupted while fetching " + uri);
+	}
+
+	try(var body = response.body()) {
+	    if(response.statusCode() == 304)
+		return unread && readCache();
+	    if(response.statusCode() != 200)
+		throw new IOException(String.format("%s answered %d", uri, response.statusCode()));
+
+	    //keep a copy as it streams past, to be kept once it has all been read
+	    Path temporary = null;
+	    Writer writer = null;
+	    if(copy != null) {
+		try {
+		    Files.createDirectories(copy.getParent());
+		    temporary = Files.createTempFile(copy.getParent(), "fetch", ".tmp");
+		    writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8);
+		}
+		catch(IOException e) {
+		    //the cache is only a cache
+		}
+	    }
+
+	    var tee = new Tee(new InputStreamReader(body, StandardCharsets.UTF_8), writer);
+	    try {
+		read(new BufferedReader(tee));
+		unread = false;
+		etag = response.headers().firstValue("ETag").orElse(null);
+		modified = response.headers().firstValue("Last-Modified").orElse(null);
+		if(writer != null)
+		    keep(temporary, writer, tee.copied());
+	    }
+	    finally {
+		if(temporary != null)
+		    Files.deleteIfExists(temporary);
+	    }
+	}
+
+	return true;
+    }
+
+    /**
+     * Reads the copy in the cache, which the server has said is current. If it can't be read,
+     * it is dropped, and the tournament is fetched again.
+     *
+     * @return true, since the tournament has been read one way or the other
+     */
+    private boolean readCache() throws IOException {
+	unread = false;
+	try(var reader = Files.newBufferedReader(copy, StandardCharsets.UTF_8)) {
+	    read(reader);
+	    cached = true;
+	    return true;
+	}
+	catch(IOException e) {
+	    etag = null;
+	    modified = null;
+	    Files.deleteIfExists(validators);
+	    return readHttp();
+	}
+    }
+
+    /**
+     * Moves the copy just fetched into the cache, along with what the server said about it.
+     */
+    private void keep(Path temporary, Writer writer, boolean copied) {
+	try {
+	    writer.close();
+	    if(!copied || (etag == null && modified == null)) {
+		//without those, the server can't tell us the copy is current
+		Files.deleteIfExists(validators);
+		return;
+	    }
+
+	    Files.move(temporary, copy, StandardCopyOption.REPLACE_EXISTING,
+		       StandardCopyOption.ATOMIC_MOVE);
+	    var written = Files.createTempFile(copy.getParent(), "meta", ".tmp");
+	    Files.write(written, List.of(uri.toString(), etag == null ? "" : etag,
+					 modified == null ? "" : modified), StandardCharsets.UTF_8);
+	    Files.move(written, validators, StandardCopyOption.REPLACE_EXISTING,
+		       StandardCopyOption.ATOMIC_MOVE);
+	}
+	catch(IOException e) {
+	    //the cache is only a cache
+	}
+    }
+
+    /**
+     * Reads the JSON of the tournament as it streams in, keeping what it had if it fails
+     * partway.
+     */
+    private void read(Reader in) throws IOException {
+	var json = new JsonReader(in);
+	String name = null;
+	var players = new HashMap<Integer, String>();
+	var rounds = new ArrayList<ArrayList<Table>>();
+	int changed = 0;
+
+	json.beginObject();
+	while(json.hasNext()) {
+	    var key = json.nextName();
+	    if(key.equals("name") && json.peek() == '"')
+		name = json.nextString();
+	    else if(key.equals("players"))
+		players(json, players);
+	    else if(key.equals("rounds")) {
+		json.beginArray();
+		while(json.hasNext()) {
+		    //a round the same as last time is kept, so that what changed is easy to see
+		    var round = round(json);
+		    int r = rounds.size();
+		    if(r < this.rounds.size() && this.rounds.get(r).equals(round))
+			rounds.add(this.rounds.get(r));
+		    else {
+			rounds.add(round);
+			changed++;
+		    }
+		}
+		json.endArray();
+	    }
+	    else
+		json.skipValue();
+	}
+	json.endObject();
+
+	this.name = name;
+	this.players = players;
+	this.rounds = rounds;
+	this.changed = changed;
+	unchanged = rounds.size() - changed;
+    }
+
+    /**
+     * Reads the name of every player, by id.
+     */
+    private static void players(JsonReader json, HashMap<Integer, String> players)
+	throws IOException {
+	json.beginArray();
+	while(json.hasNext()) {
+	    Integer id = null;
+	    String name = null;
+	    json.beginObject();
+	    while(json.hasNext()) {
+		var key = json.nextName();
+		if(key.equals("id"))
+		    id = json.nextInteger();
+		else if(key.equals("name") && json.peek() == '"')
+		    name = json.nextString();
+		else
+		    json.skipValue();
+	    }
+	    json.endObject();
+
+	    if(id != null && name != null)
+		players.put(id, name);
+	}
+	json.endArray();
+    }
+
+    /**
+     * Reads the tables of a round.
+     */
+    private static ArrayList<Table> round(JsonReader json) throws IOException {
+	var round = new ArrayList<Table>();
+	json.beginArray();
+	while(json.hasNext()) {
+	    var table = new Table();
+	    json.beginObject();
+	    while(json.hasNext()) {
+		var key = json.nextName();
+		if(key.equals("player1") && json.peek() == '{') {
+		    var player = player(json);
+		    table.left = player[0];
+		    table.leftScore = player[1];
+		}
+		else if(key.equals("player2") && json.peek() == '{') {
+		    var player = player(json);
+		    table.right = player[0];
+		    table.rightScore = player[1];
+		}
+		else
+		    json.skipValue();
+	    }
+	    json.endObject();
+
+	    //the bye may have no score of its own, but its table is over once its player's is in
+	    if(table.left == null && table.leftScore == null && table.rightScore != null)
+		table.leftScore = 0;
+	    if(table.right == null && table.rightScore == null && table.leftScore != null)
+		table.rightScore = 0;
+	    round.add(table);
+	}
+	json.endArray();
+
+	return round;
+    }
+
+    /**
+     * Reads a player at a table.
+     *
+     * @return their id and score, either of which may be null
+     */
+    private static Integer[] player(JsonReader json) throws IOException {
+	var player = new Integer[2];
+	json.beginObject();
+	while(json.hasNext()) {
+	    var key = json.nextName();
+	    if(key.equals("id"))
+		player[0] = json.nextInteger();
+	    else if(key.equals("combinedScore"))
+		player[1] = json.nextInteger();
+	    else
+		json.skipValue();
+	}
+	json.endObject();
+
+	return player;
+    }
+
+    /**
+     * Gets the name of a player, as it would appear in a pairings file.
+     */
+    private String player(Integer id) {
+	if(id == null)
+	    return Tournament.BYE;
+
+	return players.getOrDefault(id, "Player " + id);
+    }
+
+    /**
+     * Gets a name for a cache file that only this address will have: the start of its SHA-256.
+     */
+    private static String digest(String address) {
+	var hash = ResultStore.digest(address.getBytes(StandardCharsets.UTF_8));
+	return String.format("%016x%016x", hash[0], hash[1]);
+    }
+
+    /**
+     * Passes on what it reads, writing a copy of it as it goes. If the copy can't be written,
+     * it stops copying, but carries on reading.
+     */
+    private static class Tee extends FilterReader {
+	private Writer copy;
+
+	Tee(Reader in, Writer copy) {
+	    super(in);
+	    this.copy = copy;
+	}
+
+	@Override public int read() throws IOException {
+	    int c = super.read();
+	    if(c >= 0)
+		copy(new char[] {(char)c}, 0, 1);
+	    return c;
+	}
+
+	@Override public int read(char[] buffer, int off, int len) throws IOException {
+	    int n = super.read(buffer, off, len);
+	    if(n > 0)
+		copy(buffer, off, n);
+	    return n;
+	}
+
+	/**
+	 * Was everything read copied?
+	 */
+	boolean copied() {
+	    return copy != null;
+	}
+
+	private void copy(char[] buffer, int off, int len) {
+	    if(copy == null)
+		return;
+
+	    try {
+		copy.write(buffer, off, len);
+	    }
+	    catch(IOException e) {
+		copy = null;
+	    }
+	}
+    }
+}
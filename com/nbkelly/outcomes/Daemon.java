@@ -0,0 +1,237 @@
+package com.nbkelly.outcomes;
+
+/* imports */
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Keeps a JVM running to answer Outcomes commands sent over a unix domain socket, so that each
+ * query skips starting a JVM and runs on code the JIT has already compiled, with the tallies
+ * of recent queries at hand.
+ * <p>
+ * Start it with the path of the socket, then send it the same arguments Outcomes takes with
+ * Client:
+ * <pre>
+ *   java com.nbkelly.outcomes.Daemon /tmp/outcomes.sock &amp;
+ *   java com.nbkelly.outcomes.Client /tmp/outcomes.sock -p pairings.txt -r 5 -cs 8
+ * </pre>
+ * A request is the client's working directory, the argument count and each argument (all
+ * strings as modified UTF-8). The daemon runs in its own directory, so the paths given to -p,
+ * --store, --cobra-cache and --cobra are taken relative to the client's. Whatever the command
+ * prints is streamed back in frames - a byte saying stdout (1) or stderr (2), a length, and
+ * the bytes - and the response ends with a 0 byte and the exit code.
+ * <p>
+ * Each request runs on its own thread, with System.out and System.err pointed at that
+ * request's client for as long as it runs. A result store is opened by the first request
+ * naming it, and shared by every request after it until the daemon stops.
+ */
+class Daemon {
+    /** frame types */
+    static final int END = 0;
+    static final int STDOUT = 1;
+    static final int STDERR = 2;
+
+    /** options whose argument is a path, which the client gives relative to its own directory */
+    static final Set<String> PATHS = Set.of("-p", "--pairings", "--store", "--cobra-cache");
+
+    /** tallies shared by every request, kept as long as the server would keep them */
+    static final int CACHE_SIZE = 64;
+
+    /** where each request thread's System.out and System.err go */
+    private static final ThreadLocal<PrintStream> out = new ThreadLocal<>();
+    private static final ThreadLocal<PrintStream> err = new ThreadLocal<>();
+
+    private final Path path;
+    private final TallyCache cache = new TallyCache(CACHE_SIZE, Outcomes.CACHE_TTL);
+    /** result stores opened by requests, kept open for every request after them */
+    private final HashMap<Path, ResultStore> stores = new HashMap<>();
+    private final ExecutorService executor = Server.perRequest();
+
+    Daemon(Path path) {
+	this.path = path;
+    }
+
+    /**
+     * Listens on the socket, answering requests until the process is stopped.
+     *
+     * @throws IOException if the socket can't be bound
+     */
+    void serve() throws IOException {
+	//a socket file left behind by a daemon that died would stop us binding
+	Files.deleteIfExists(path);
+	var server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+	server.bind(UnixDomainSocketAddress.of(path));
+	Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+		    try {
+			Files.deleteIfExists(path);
+			synchronized(stores) {
+			    for(var store : stores.values())
+				store.close();
+			}
+		    }
+		    catch(IOException e) {
+			//nothing more to do on the way out
+		    }
+		}));
+
+	System.setOut(redirect(System.out, out));
+	System.setErr(redirect(System.err, err));
+	System.out.println("Listening on " + path);
+
+	while(true) {
+	    var client = server.accept();
+	    executor.execute(() -> answer(client));
+	}
+    }
+
+    /**
+     * Makes the path arguments of a request absolute, against the client's working directory.
+     * Only the arguments of options taking a path are touched, so a player whose name happens
+     * to be a file in that directory is left alone.
+     *
+     * @param cwd the client's working directory
+     * @param argv the arguments to Outcomes, which are changed in place
+     */
+    static void resolve(Path cwd, String[] argv) {
+	for(int i = 0; i + 1 < argv.length; i++) {
+	    var arg = argv[i + 1];
+	    //--cobra also takes a tournament id or an address
+	    boolean path = PATHS.contains(argv[i])
+		|| argv[i].equals("--cobra") && !arg.matches("[0-9]+")
+		&& !arg.startsWith("http://") && !arg.startsWith("https://");
+
+	    if(path) {
+		argv[i + 1] = cwd.resolve(arg).toString();
+		i++;
+	    }
+	}
+    }
+
+    /**
+     * Runs one request, streaming what it prints back to the client.
+     */
+    private void answer(SocketChannel client) {
+	try(client) {
+	    var in = new DataInputStream(Channels.newInputStream(client));
+	    var cwd = Path.of(in.readUTF());
+	    var argv = new String[in.readInt()];
+	    for(int i = 0; i < argv.length; i++)
+		argv[i] = in.readUTF();
+	    resolve(cwd, argv);
+
+	    var frames = new DataOutputStream(new BufferedOutputStream(
+						    Channels.newOutputStream(client)));
+	    out.set(new PrintStream(new Frames(frames, STDOUT), true));
+	    err.set(new PrintStream(new Frames(frames, STDERR), true));
+
+	    int exit;
+	    var outcomes = new Outcomes();
+	    outcomes.cache = cache;
+	    outcomes.stores = stores;
+	    try {
+		exit = outcomes.request(argv);
+	    }
+	    catch(RuntimeException e) {
+		e.printStackTrace();
+		exit = 1;
+	    }
+	    finally {
+		out.get().flush();
+		err.get().flush();
+		out.remove();
+		err.remove();
+
+		if(outcomes.pool != null)
+		    outcomes.pool.shutdown();
+	    }
+
+	    synchronized(frames) {
+		frames.writeByte(END);
+		frames.writeInt(exit);
+		frames.flush();
+	    }
+	}
+	catch(IOException e) {
+	    //the client went away
+	}
+    }
+
+    /**
+     * Makes a stream that writes to whichever stream the current thread has set, or to the
+     * original stream if it has none.
+     */
+    private static PrintStream redirect(PrintStream original, ThreadLocal<PrintStream> current) {
+	return new PrintStream(new OutputStream() {
+		@Override public void write(int b) {
+		    target().write(b);
+		}
+
+		@Override public void write(byte[] b, int off, int len) {
+		    target().write(b, off, len);
+		}
+
+		@Override public void flush() {
+		    target().flush();
+		}
+
+		private PrintStream target() {
+		    var stream = current.get();
+		    return stream == null ? original : stream;
+		}
+	    }, true);
+    }
+
+    /**
+     * Writes everything written to it as frames of one type.
+     */
+    private static class Frames extends OutputStream {
+	private final DataOutputStream frames;
+	private final int type;
+
+	Frames(DataOutputStream frames, int type) {
+	    this.frames = frames;
+	    this.type = type;
+	}
+
+	@Override public void write(int b) throws IOException {
+	    write(new byte[] {(byte)b}, 0, 1);
+	}
+
+	@Override public void write(byte[] b, int off, int len) throws IOException {
+	    synchronized(frames) {
+		frames.writeByte(type);
+		frames.writeInt(len);
+		frames.write(b, off, len);
+	    }
+	}
+
+	@Override public void flush() throws IOException {
+	    synchronized(frames) {
+		frames.flush();
+	    }
+	}
+    }
+
+    public static void main(String[] argv) throws IOException {
+	if(argv.length != 1) {
+	    System.err.println("usage: java com.nbkelly.outcomes.Daemon SOCKET");
+	    System.exit(2);
+	}
+
+	new Daemon(Path.of(argv[0])).serve();
+    }
+}
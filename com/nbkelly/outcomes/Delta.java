@@ -0,0 +1,115 @@
+package com.nbkelly.outcomes;
+
+/* imports */
+import java.util.ArrayList;
+
+/**
+ * The odds of a tournament while its open tables report in, one at a time.
+ * <p>
+ * Every walk also tallies the outcomes that follow from each result at each open table (see
+ * Engine.run(Tally[])). When a table reports, the new odds are just the slice for its result,
+ * so they are ready at once. The slices of what is left are only worked out when the next
+ * table reports, by walking the outcomes of the tables still open - a third of the walk before
+ * it, and shrinking with every report, rather than a fresh walk of every open table.
+ * <p>
+ * A delta is not thread safe.
+ */
+class Delta {
+    final Tournament t;
+    final int cutSize;
+    final boolean twoFourOne;
+
+    private final Engine engine;
+    /** the tally of the tables still open, and its slices (null until walked) */
+    private Tally tally = null;
+    private Tally[] slices = null;
+    /** the tables reported so far, in order */
+    final ArrayList<Integer> reported = new ArrayList<>();
+
+    /**
+     * Creates a delta over every open table of a tournament.
+     *
+     * @param t the tournament
+     * @param cutSize the number of players in the top cut
+     * @param twoFourOne if true, only sweeps are considered for open tables
+     */
+    Delta(Tournament t, int cutSize, boolean twoFourOne) {
+	this.t = t;
+	this.cutSize = cutSize;
+	this.twoFourOne = twoFourOne;
+	engine = new Engine(t, cutSize, twoFourOne);
+    }
+
+    /**
+     * Gets the tally of every outcome of the tables that haven't reported.
+     *
+     * @return the tally, walking the open tables if it isn't known yet
+     */
+    Tally tally() {
+	if(tally == null)
+	    walk();
+
+	return tally;
+    }
+
+    /**
+     * Reports the result of an open table.
+     *
+     * @param table the index of the table
+     * @param res the result at the table
+     * @return the tally of every outcome of the tables still open
+     * @throws IllegalArgumentException if the table isn't open, or the result can't happen
+     */
+    Tally report(int table, int res) {
+	if(table < 0 || table >= t.openTables() || engine.result[table] >= 0)
+	    throw new IllegalArgumentException("table " + table + " is not open");
+	if(res < Engine.LEFT_SWEEP || res > Engine.RIGHT_SWEEP || (twoFourOne && res == Engine.SPLIT))
+	    throw new IllegalArgumentException("result " + res + " can't happen at table " + table);
+
+	if(slices == null)
+	    walk();
+
+	tally = slices[table * 3 + res];
+	slices = null;
+	engine.fix(table, res);
+	reported.add(table);
+	return tally;
+    }
+
+    /**
+     * Reports the result of an open table by its score.
+     *
+     * @param table the index of the table
+     * @param left the points the left player scored (eg 6)
+     * @param right the points the right player scored (eg 0)
+     * @return the tally of every outcome of the tables still open
+     * @throws IllegalArgumentException if the table isn't open, or the score can't happen
+     */
+    Tally report(int table, int left, int right) {
+	return report(table, result(left, right));
+    }
+
+    /**
+     * Gets the result code of a table from its score.
+     *
+     * @return the result, or -1 if the score isn't a sweep or a split
+     */
+    static int result(int left, int right) {
+	if(left == 6 && right == 0)
+	    return Engine.LEFT_SWEEP;
+	if(left == 3 && right == 3)
+	    return Engine.SPLIT;
+	if(left == 0 && right == 6)
+	    return Engine.RIGHT_SWEEP;
+
+	return -1;
+    }
+
+    /**
+     * Walks the outcomes of the tables still open, slicing them by each result.
+     */
+    private void walk() {
+	slices = new Tally[t.openTables() * 3];
+	tally = engine.run(slices);
+    }
+}
@@ -0,0 +1,1542 @@
+package com.nbkelly.outcomes;
+
+/* imports */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Exact enumeration of every outcome of the open tables in a tournament.
+ * <p>
+ * Scores are kept in a single array, and each table's result is applied and undone in place
+ * as the walk descends and returns, so nothing is allocated per node or per leaf. The
+ * ranking buffer is reused between leaves, and since neighbouring leaves only differ by a
+ * table or two, it is already close to sorted by the time we get to it.
+ * <p>
+ * Tiebreaks are kept up to date the same way: applying a result moves the SoS of the
+ * opponents of the players at that table, and the ESoS of everyone who played those
+ * opponents. Both are exact integer numerators (see Tournament), so moving them back and
+ * forth never drifts, and players are ranked by comparing packed integer keys.
+ * <p>
+ * Before walking, every player is classified as clinched (in the cut in every outcome),
+ * eliminated (never in the cut) or a contender, by bounding their score and tiebreaks.
+ * Only contenders are ranked at the leaves, and only against the seats the clinched players
+ * have left open. Tables that can't move any contender's score or tiebreaks are not walked at
+ * all: each one just multiplies the weight of every leaf that is.
+ * <p>
+ * An engine is not thread safe - each thread needs its own. The parallel walk takes care of
+ * this by giving every task a copy of the engine it was started from.
+ */
+class Engine {
+    /** result codes for an open table */
+    static final int LEFT_SWEEP = 0;
+    static final int SPLIT = 1;
+    static final int RIGHT_SWEEP = 2;
+
+    /** classification of a player */
+    static final byte CONTENDER = 0;
+    static final byte CLINCHED = 1;
+    static final byte ELIMINATED = 2;
+
+    final Tournament t;
+    final int cutSize;
+    final boolean twoFourOne;
+
+    /* working state: SoS and ESoS are numerators over the tournament's denominators */
+    final int[] score;
+    final long[] sos;
+    final long[] esos;
+    final int[] order;
+
+    /* packed ranking key of each player, refreshed before each sort */
+    private final long[] key;
+
+    /* open tables still to be resolved, and the result given to each table */
+    private final int[] open;
+    private int openCount;
+    final int[] result;
+
+    /* classification of each player, and the contenders as a ranking buffer */
+    final byte[] status;
+    final int[] contenders;
+    int contenderCount;
+    int clinchedCount;
+
+    /* players whose SoS must be known to rank the contenders */
+    private final int[] sosPlayers;
+    private int sosCount;
+
+    /* per-depth contender lists, and the number of leaves below a node with k tables left */
+    private final int[][] levels;
+    private final long[] subtree;
+
+    /* table ordering used while counting */
+    private final int[] tableOrder;
+    private final int[] weight;
+
+    /* players that can affect the ranking of a contender, and the weight of each leaf */
+    private final boolean[] relevant;
+    private long multiplicity = 1;
+
+    /* System.nanoTime() past which the walk stops exploring */
+    private long deadline = Long.MAX_VALUE;
+
+    /* memo of subtree tallies, if any, and the fewest tables left at a node worth remembering */
+    Transpositions memo = null;
+    static final int MEMO_TABLES = 3;
+
+    /* progress of the walk, if it is being watched: the part of the walk this engine counts,
+       when it next publishes, and how many leaves the tally had when counting began */
+    Progress progress = null;
+    private int part = 0;
+    private long publishAt = 0;
+    private long counted = 0;
+
+    /* while slicing: what each result at each table added, and the counts before each branch */
+    private Tally[] slices = null;
+    private long[][] marks = null;
+
+    /* bounds used while classifying */
+    private final int[] lo;
+    private final int[] hi;
+    private final long[] sosLo;
+    private final long[] sosHi;
+    private final long[] esosLo;
+    private final long[] esosHi;
+
+    /**
+     * Creates an engine over a tournament.
+     *
+     * @param t the tournament to enumerate
+     * @param cutSize the number of players in the top cut
+     * @param twoFourOne if true, only sweeps are considered for open tables
+     */
+    Engine(Tournament t, int cutSize, boolean twoFourOne) {
+	this.t = t;
+	this.cutSize = cutSize;
+	this.twoFourOne = twoFourOne;
+
+	int n = t.size();
+	score = t.scores.clone();
+	sos = new long[n];
+	esos = new long[n];
+	order = new int[n];
+	for(int i = 0; i < n; i++)
+	    order[i] = i;
+
+	for(int i = 0; i < n; i++) {
+	    for(int e = t.first[i]; e < t.first[i+1]; e++)
+		sos[i] += score[t.opponent[e]];
+
+	    sos[i] *= t.sosScale[i];
+	}
+
+	for(int i = 0; i < n; i++) {
+	    for(int e = t.first[i]; e < t.first[i+1]; e++)
+		if(!t.bye[t.opponent[e]])
+		    esos[i] += sos[t.opponent[e]];
+
+	    esos[i] *= t.esosScale[i];
+	}
+
+	key = new long[n];
+
+	open = new int[t.openTables()];
+	openCount = open.length;
+	for(int i = 0; i < openCount; i++)
+	    open[i] = i;
+
+	result = new int[open.length];
+	Arrays.fill(result, -1);
+
+	status = new byte[n];
+	contenders = new int[n];
+	sosPlayers = new int[n];
+	lo = new int[n];
+	hi = new int[n];
+	sosLo = new long[n];
+	sosHi = new long[n];
+	esosLo = new long[n];
+	esosHi = new long[n];
+
+	levels = new int[open.length][n];
+	subtree = subtrees(open.length, twoFourOne);
+
+	tableOrder = new int[open.length];
+	weight = new int[open.length];
+	relevant = new boolean[n];
+    }
+
+    /**
+     * Creates a copy of an engine, including any fixed or applied results.
+     *
+     * @param other the engine to copy
+     */
+    Engine(Engine other) {
+	t = other.t;
+	cutSize = other.cutSize;
+	twoFourOne = other.twoFourOne;
+
+	score = other.score.clone();
+	sos = other.sos.clone();
+	esos = other.esos.clone();
+	order = other.order.clone();
+
+	key = new long[score.length];
+
+	open = other.open.clone();
+	openCount = other.openCount;
+	result = other.result.clone();
+
+	int n = score.length;
+	status = new byte[n];
+	contenders = new int[n];
+	sosPlayers = new int[n];
+	lo = new int[n];
+	hi = new int[n];
+	sosLo = new long[n];
+	sosHi = new long[n];
+	esosLo = new long[n];
+	esosHi = new long[n];
+
+	levels = new int[open.length][n];
+	subtree = subtrees(open.length, twoFourOne);
+
+	tableOrder = new int[open.length];
+	weight = new int[open.length];
+	relevant = new boolean[n];
+	multiplicity = other.multiplicity;
+	deadline = other.deadline;
+	progress = other.progress;
+	if(other.memo != null)
+	    memo = new Transpositions(other.memo);
+    }
+
+    /**
+     * Applies a result to a table.
+     *
+     * @param table the index of the table
+     * @param res the result (LEFT_SWEEP, SPLIT, RIGHT_SWEEP)
+     */
+    void apply(int table, int res) {
+	switch(res) {
+	case LEFT_SWEEP:
+	    add(t.left[table], 6);
+	    break;
+	case SPLIT:
+	    add(t.left[table], 3);
+	    add(t.right[table], 3);
+	    break;
+	default:
+	    add(t.right[table], 6);
+	}
+	result[table] = res;
+    }
+
+    /**
+     * Undoes a result previously applied to a table.
+     *
+     * @param table the index of the table
+     * @param res the result that was applied
+     */
+    void undo(int table, int res) {
+	switch(res) {
+	case LEFT_SWEEP:
+	    add(t.left[table], -6);
+	    break;
+	case SPLIT:
+	    add(t.left[table], -3);
+	    add(t.right[table], -3);
+	    break;
+	default:
+	    add(t.right[table], -6);
+	}
+	result[table] = -1;
+    }
+
+    /**
+     * Moves the score of a player, along with the SoS of their opponents and the ESoS of
+     * everyone their opponents have played.
+     */
+    private void add(int player, int points) {
+	score[player] += points;
+	for(int e = t.first[player]; e < t.first[player+1]; e++) {
+	    int opp = t.opponent[e];
+	    long moved = points * t.sosScale[opp];
+	    sos[opp] += moved;
+
+	    //the bye's SoS is never part of an ESoS
+	    if(t.bye[opp])
+		continue;
+
+	    for(int f = t.first[opp]; f < t.first[opp+1]; f++) {
+		int other = t.opponent[f];
+		esos[other] += moved * t.esosScale[other];
+	    }
+	}
+    }
+
+    /**
+     * Packs the score, tiebreaks and name of a player into a key, where a higher key ranks
+     * higher.
+     */
+    private void pack(int player) {
+	if(!t.packed)
+	    return;
+
+	long packed = score[player];
+	packed = (packed << t.sosBits) | sos[player];
+	packed = (packed << t.esosBits) | esos[player];
+	key[player] = (packed << t.nameBits) | (t.size() - 1 - t.nameRank[player]);
+    }
+
+    /**
+     * Gets the SoS of a player, as of the last result applied.
+     *
+     * @param player the id of the player
+     * @return the SoS of the player
+     */
+    double sos(int player) {
+	return sos[player] / (double)t.sosDenominator;
+    }
+
+    /**
+     * Gets the ESoS of a player, as of the last result applied.
+     *
+     * @param player the id of the player
+     * @return the ESoS of the player
+     */
+    double esos(int player) {
+	return esos[player] / (double)t.esosDenominator;
+    }
+
+    /**
+     * Fixes the result of a table: the table is applied and no longer enumerated.
+     *
+     * @param table the index of the table
+     * @param res the result to fix
+     */
+    void fix(int table, int res) {
+	for(int i = 0; i < openCount; i++)
+	    if(open[i] == table) {
+		open[i] = open[--openCount];
+		open[openCount] = table;
+		apply(table, res);
+		return;
+	    }
+
+	throw new IllegalArgumentException("table " + table + " is not open");
+    }
+
+    /**
+     * Releases a table previously fixed with fix().
+     * <p>
+     * Tables must be released in the reverse order they were fixed.
+     *
+     * @param table the index of the table
+     */
+    void release(int table) {
+	undo(table, result[table]);
+	for(int i = openCount; i < open.length; i++)
+	    if(open[i] == table) {
+		open[i] = open[openCount];
+		open[openCount++] = table;
+		return;
+	    }
+    }
+
+    /**
+     * Counts the leaves below a node with each number of tables left, up to a number of tables.
+     * Counts too big for a long are left at Long.MAX_VALUE, which no power of 2 or 3 is.
+     */
+    private static long[] subtrees(int tables, boolean twoFourOne) {
+	var subtree = new long[tables + 1];
+	subtree[0] = 1;
+	for(int i = 1; i < subtree.length; i++)
+	    try {
+		subtree[i] = Math.multiplyExact(subtree[i-1], twoFourOne ? 2 : 3);
+	    }
+	    catch(ArithmeticException e) {
+		subtree[i] = Long.MAX_VALUE;
+	    }
+
+	return subtree;
+    }
+
+    /**
+     * Can every outcome of a tournament's open tables be counted in a long? Past 39 open tables
+     * (or 62 under 241s) they can't, and the odds can only be sampled.
+     */
+    static boolean countable(Tournament t, boolean twoFourOne) {
+	return subtrees(t.openTables(), twoFourOne)[t.openTables()] != Long.MAX_VALUE;
+    }
+
+    /**
+     * Can every outcome of this engine's open tables be counted in a long?
+     */
+    boolean countable() {
+	return subtree[open.length] != Long.MAX_VALUE;
+    }
+
+    /**
+     * Refuses to walk a tree whose leaves can't be counted, rather than count them wrongly.
+     */
+    private void checkCountable() {
+	if(!countable())
+	    throw new IllegalStateException(String.format("%d open tables have too many outcomes "
+							  + "to count - sample them instead",
+							  open.length));
+    }
+
+    /**
+     * Enumerates every outcome of the open tables, counting who makes the cut.
+     *
+     * @return the tally of all outcomes
+     */
+    Tally run() {
+	checkCountable();
+	var tally = tally();
+	if(progress != null)
+	    progress.start(1, subtree[openCount] * multiplicity);
+
+	count(0, tally);
+	return tally;
+    }
+
+    /**
+     * Enumerates every outcome of the open tables, also tallying the outcomes that follow from
+     * each result at each open table.
+     * <p>
+     * Every branch on a table adds what it counted to the slice for that result. Anything
+     * credited before a table was decided covers each of its results equally, so what is left
+     * of the total once the branches are taken away is shared evenly between the slices. Tables
+     * that are never branched on (collapsed tables) are shared out entirely this way, which is
+     * right, since their result changes nothing.
+     * <p>
+     * The memo is not used while slicing, since a remembered subtree doesn't say how it split
+     * by the tables below it.
+     *
+     * @param slices filled with the tally of the outcomes with each result at each table, at
+     *        [table * 3 + result] (fixed tables, and splits under 241s, are left null)
+     * @return the tally of all outcomes
+     */
+    Tally run(Tally[] slices) {
+	checkCountable();
+	int n = t.size();
+	int branches = twoFourOne ? 2 : 3;
+	for(int i = 0; i < openCount; i++)
+	    for(int res = LEFT_SWEEP; res <= RIGHT_SWEEP; res++)
+		if(!twoFourOne || res != SPLIT)
+		    slices[open[i] * 3 + res] = tally();
+
+	this.slices = slices;
+	marks = new long[open.length][4 * n];
+	var tally = run();
+	this.slices = null;
+	marks = null;
+
+	for(int i = 0; i < openCount; i++) {
+	    int table = open[i];
+	    for(int player = 0; player < n; player++) {
+		//what the branches on this table didn't account for is shared evenly
+		long cut = tally.cut[player];
+		var own = new long[3];
+		for(int res = LEFT_SWEEP; res <= RIGHT_SWEEP; res++) {
+		    var slice = slices[table * 3 + res];
+		    if(slice == null)
+			continue;
+
+		    cut -= slice.cut[player];
+		    for(int r = LEFT_SWEEP; r <= RIGHT_SWEEP; r++)
+			own[r] += slice.own[player * 3 + r];
+		}
+
+		for(int res = LEFT_SWEEP; res <= RIGHT_SWEEP; res++) {
+		    var slice = slices[table * 3 + res];
+		    if(slice == null)
+			continue;
+
+		    slice.cut[player] += cut / branches;
+		    if(t.table[player] == table) {
+			//a player at this table has their own result settled by the slice
+			for(int r = LEFT_SWEEP; r <= RIGHT_SWEEP; r++)
+			    slice.own[player * 3 + r] = r == res ? slice.cut[player] : 0;
+		    }
+		    else
+			for(int r = LEFT_SWEEP; r <= RIGHT_SWEEP; r++)
+			    slice.own[player * 3 + r] +=
+				(tally.own[player * 3 + r] - own[r]) / branches;
+		}
+	    }
+
+	    for(int res = LEFT_SWEEP; res <= RIGHT_SWEEP; res++)
+		if(slices[table * 3 + res] != null)
+		    slices[table * 3 + res].leaves = tally.leaves / branches;
+	}
+
+	return tally;
+    }
+
+    /**
+     * Enumerates every outcome of the open tables on a fork/join pool.
+     * <p>
+     * The first splitDepth open tables are resolved by forking one task per result, and
+     * each task then walks the rest of the tree sequentially on its own copy of the engine.
+     * The tallies of all tasks are merged as they are joined, so the counts are exactly
+     * those of the sequential walk.
+     *
+     * @param pool the pool to run on
+     * @param splitDepth the number of tables to fork on (clamped to the number of open tables)
+     * @return the tally of all outcomes
+     */
+    Tally run(ForkJoinPool pool, int splitDepth) {
+	checkCountable();
+	//settle the table order first, so we only fork on tables that matter
+	long weight = multiplicity;
+	int tables = prepare(0);
+
+	splitDepth = Math.min(splitDepth, openCount);
+	if(progress != null)
+	    progress.start((int)subtree[splitDepth], subtree[openCount] * multiplicity);
+
+	var tally = pool.invoke(new Walk(this, 0, splitDepth, 0));
+
+	restore(0, tables, weight);
+	return tally;
+    }
+
+    /**
+     * Creates an empty tally for an exhaustive walk of this engine's outcomes.
+     */
+    private Tally tally() {
+	var tally = new Tally(t.size());
+	tally.branches = twoFourOne ? 2 : 3;
+	return tally;
+    }
+
+    /**
+     * Stops the exhaustive walks after a while.
+     * <p>
+     * Once the time is up, every subtree not yet walked is counted as unexplored, so the walk
+     * returns at once with bounds on each player's odds rather than exact odds.
+     *
+     * @param nanos how long to walk for, from now
+     */
+    void stopAfter(long nanos) {
+	deadline = System.nanoTime() + nanos;
+    }
+
+    /**
+     * Picks a split depth giving each worker a reasonable number of tasks to steal.
+     *
+     * @param threads the number of worker threads
+     * @return the number of tables to fork on
+     */
+    int splitDepth(int threads) {
+	int depth = 0;
+	for(long tasks = 1; tasks < 8L * threads && depth < openCount; depth++)
+	    tasks *= twoFourOne ? 2 : 3;
+
+	return depth;
+    }
+
+    private static class Walk extends RecursiveTask<Tally> {
+	private static final long serialVersionUID = 1L;
+
+	private final Engine engine;
+	private final int depth;
+	private final int splitDepth;
+	/** which of the tasks at the split depth this is, or is above */
+	private final int part;
+
+	Walk(Engine engine, int depth, int splitDepth, int part) {
+	    this.engine = engine;
+	    this.depth = depth;
+	    this.splitDepth = splitDepth;
+	    this.part = part;
+	}
+
+	@Override protected Tally compute() {
+	    if(depth == splitDepth) {
+		var tally = engine.tally();
+		engine.part = part;
+		engine.count(depth, tally);
+		return tally;
+	    }
+
+	    //fork a copy of the engine for every result of the next table
+	    int table = engine.open[depth];
+	    var tasks = new ArrayList<Walk>();
+	    for(int res = LEFT_SWEEP; res <= RIGHT_SWEEP; res++) {
+		if(engine.twoFourOne && res == SPLIT)
+		    continue;
+
+		var copy = new Engine(engine);
+		copy.apply(table, res);
+		tasks.add(new Walk(copy, depth + 1, splitDepth, part * (engine.twoFourOne ? 2 : 3)
+				   + tasks.size()));
+	    }
+
+	    for(int i = 1; i < tasks.size(); i++)
+		tasks.get(i).fork();
+
+	    var tally = tasks.get(0).compute();
+	    for(int i = tasks.size() - 1; i > 0; i--)
+		tally.merge(tasks.get(i).join());
+
+	    return tally;
+	}
+    }
+
+    /**
+     * Estimates the tally of the open tables by drawing outcomes at random.
+     * <p>
+     * Every open table is given a uniformly random result (a sweep either way under 241s), so
+     * each outcome is drawn with the same weight the exhaustive walk gives it. The tally counts
+     * samples rather than outcomes, along with how often each result was drawn at each table.
+     *
+     * @param samples the number of outcomes to draw
+     * @param random the source of results
+     * @return the tally of the sampled outcomes
+     */
+    Tally sample(long samples, SplittableRandom random) {
+	var tally = new Tally(t.size(), open.length);
+	classify(0);
+
+	int seats = Math.min(Math.min(cutSize, order.length) - clinchedCount, contenderCount);
+	var clinched = new int[clinchedCount];
+	for(int player = 0, k = 0; player < status.length; player++)
+	    if(status[player] == CLINCHED)
+		clinched[k++] = player;
+
+	for(long s = 0; s < samples; s++) {
+	    for(int i = 0; i < openCount; i++) {
+		int table = open[i];
+		int res = twoFourOne ? RIGHT_SWEEP * random.nextInt(2) : random.nextInt(3);
+		apply(table, res);
+		tally.results[table * 3 + res]++;
+	    }
+
+	    if(seats > 0 && contenderCount > seats)
+		select(contenders, contenderCount, seats);
+
+	    for(int i = 0; i < seats; i++)
+		credit(contenders[i], 1, tally);
+	    for(var player : clinched)
+		credit(player, 1, tally);
+
+	    for(int i = 0; i < openCount; i++)
+		undo(open[i], result[open[i]]);
+	    tally.leaves++;
+	}
+
+	return tally;
+    }
+
+    /**
+     * Estimates the tally of the open tables by drawing outcomes at random on a fork/join pool.
+     * <p>
+     * The samples are shared between a few tasks per worker, each drawing from its own split
+     * of the random source on its own copy of the engine.
+     *
+     * @param pool the pool to run on
+     * @param samples the number of outcomes to draw
+     * @param random the source of results, split once per task
+     * @return the tally of the sampled outcomes
+     */
+    Tally sample(ForkJoinPool pool, long samples, SplittableRandom random) {
+	int tasks = pool.getParallelism() * 4;
+	var draws = new ArrayList<ForkJoinTask<Tally>>();
+	for(int i = 0; i < tasks; i++) {
+	    long share = samples / tasks + (i < samples % tasks ? 1 : 0);
+	    var copy = new Engine(this);
+	    var split = random.split();
+	    draws.add(pool.submit(() -> copy.sample(share, split)));
+	}
+
+	var tally = new Tally(t.size(), open.length);
+	for(var draw : draws)
+	    tally.merge(draw.join());
+
+	return tally;
+    }
+
+    /** samples drawn per round of tuning the tilt, and the most rounds to tune for */
+    static final int TILT_SAMPLES = 5000;
+    static final int TILT_ROUNDS = 12;
+    /** share of each round's samples the tilt is tuned towards */
+    static final double ELITE = 0.1;
+    /** how far the tilt moves towards the elite samples each round */
+    static final double SMOOTHING = 0.5;
+    /** the least likely any result is ever made, so that no weight can blow up */
+    static final double FLOOR = 0.05;
+
+    /**
+     * Tunes the odds of each result at each table towards outcomes where a player makes the cut.
+     * <p>
+     * This is the cross-entropy method: draw a round of outcomes from the current tilt, keep
+     * the tenth where the fewest contenders finish above the player, and move the tilt towards
+     * the results seen in those (weighted by how much more likely they were under the tilt than
+     * they really are). Once the kept outcomes all have the player in the cut, one last update
+     * is made and the tilt is returned.
+     * <p>
+     * Only the tables that bear directly on the player are tilted: their own, those of the
+     * other contenders, and those of their opponents. Every other table stays uniform, since
+     * any drift there would only add to the spread of the weights.
+     *
+     * @param player the id of a contender
+     * @param random the source of results
+     * @return the odds of each result at each table, indexed by table * 3 + result
+     */
+    double[] tilt(int player, SplittableRandom random) {
+	long weight = multiplicity;
+	int tables = prepare(0);
+	int seats = Math.min(cutSize, order.length) - clinchedCount;
+
+	var tilt = uniform();
+	var tilted = new boolean[open.length];
+	for(int i = 0; i < openCount; i++) {
+	    int table = open[i];
+	    tilted[table] = t.left[table] == player || t.right[table] == player
+		|| status[t.left[table]] == CONTENDER || status[t.right[table]] == CONTENDER;
+	}
+	for(int e = t.first[player]; e < t.first[player+1]; e++) {
+	    int table = t.table[t.opponent[e]];
+	    if(table >= 0)
+		tilted[table] = true;
+	}
+
+	var drawn = new int[TILT_SAMPLES][openCount];
+	var weights = new double[TILT_SAMPLES];
+	var above = new int[TILT_SAMPLES];
+	var sorted = new int[TILT_SAMPLES];
+	int last = Integer.MAX_VALUE;
+
+	for(int round = 0; round < TILT_ROUNDS; round++) {
+	    for(int s = 0; s < TILT_SAMPLES; s++) {
+		weights[s] = draw(tilt, random, drawn[s]);
+		above[s] = above(player);
+		undraw();
+	    }
+
+	    System.arraycopy(above, 0, sorted, 0, TILT_SAMPLES);
+	    Arrays.sort(sorted);
+	    int line = Math.max(sorted[(int)(ELITE * TILT_SAMPLES)], seats - 1);
+
+	    //placings are coarse, so if the tenth hasn't moved, ask for one better anyway
+	    if(line >= last && sorted[0] < last)
+		line = Math.max(last - 1, seats - 1);
+	    last = line;
+
+	    for(int i = 0; i < openCount; i++) {
+		int table = open[i];
+		if(!tilted[table])
+		    continue;
+
+		var seen = new double[3];
+		double total = 0d;
+		for(int s = 0; s < TILT_SAMPLES; s++)
+		    if(above[s] <= line) {
+			seen[drawn[s][i]] += weights[s];
+			total += weights[s];
+		    }
+
+		if(total > 0d)
+		    for(int res = LEFT_SWEEP; res <= RIGHT_SWEEP; res++)
+			tilt[table * 3 + res] = SMOOTHING * seen[res] / total
+			    + (1 - SMOOTHING) * tilt[table * 3 + res];
+		floor(tilt, table);
+	    }
+
+	    if(line == seats - 1)
+		break;
+	}
+
+	restore(0, tables, weight);
+	return tilt;
+    }
+
+    /**
+     * Estimates the odds of a player making the cut by drawing outcomes from a tilt.
+     * <p>
+     * Each sample counts for the odds of drawing it uniformly over the odds of drawing it from
+     * the tilt, so the estimate is unbiased whatever the tilt is. A good tilt just makes the
+     * player's rare outcomes common, and the estimate tight.
+     *
+     * @param player the id of a contender
+     * @param tilt the odds of each result at each table, from tilt()
+     * @param samples the number of outcomes to draw
+     * @param random the source of results
+     * @return the estimated odds
+     */
+    Estimate focus(int player, double[] tilt, long samples, SplittableRandom random) {
+	long weight = multiplicity;
+	int tables = prepare(0);
+	int seats = Math.min(cutSize, order.length) - clinchedCount;
+
+	var estimate = new Estimate();
+	var drawn = new int[openCount];
+	for(long s = 0; s < samples; s++) {
+	    double likelihood = draw(tilt, random, drawn);
+	    estimate.add(above(player) < seats ? likelihood : 0d);
+	    undraw();
+	}
+
+	restore(0, tables, weight);
+	return estimate;
+    }
+
+    /**
+     * Estimates the odds of a player making the cut by drawing outcomes from a tilt, on a
+     * fork/join pool.
+     *
+     * @param pool the pool to run on
+     * @param player the id of a contender
+     * @param tilt the odds of each result at each table, from tilt()
+     * @param samples the number of outcomes to draw
+     * @param random the source of results, split once per task
+     * @return the estimated odds
+     */
+    Estimate focus(ForkJoinPool pool, int player, double[] tilt, long samples,
+		   SplittableRandom random) {
+	int tasks = pool.getParallelism() * 4;
+	var draws = new ArrayList<ForkJoinTask<Estimate>>();
+	for(int i = 0; i < tasks; i++) {
+	    long share = samples / tasks + (i < samples % tasks ? 1 : 0);
+	    var copy = new Engine(this);
+	    var split = random.split();
+	    draws.add(pool.submit(() -> copy.focus(player, tilt, share, split)));
+	}
+
+	var estimate = new Estimate();
+	for(var draw : draws)
+	    estimate.merge(draw.join());
+
+	return estimate;
+    }
+
+    private double[] uniform() {
+	var tilt = new double[open.length * 3];
+	for(int table = 0; table < open.length; table++)
+	    for(int res = LEFT_SWEEP; res <= RIGHT_SWEEP; res++)
+		if(!twoFourOne || res != SPLIT)
+		    tilt[table * 3 + res] = 1d / (twoFourOne ? 2 : 3);
+
+	return tilt;
+    }
+
+    /**
+     * Keeps every allowed result at a table at least FLOOR likely.
+     */
+    private void floor(double[] tilt, int table) {
+	double total = 0d;
+	for(int res = LEFT_SWEEP; res <= RIGHT_SWEEP; res++)
+	    if(!twoFourOne || res != SPLIT) {
+		tilt[table * 3 + res] = Math.max(tilt[table * 3 + res], FLOOR);
+		total += tilt[table * 3 + res];
+	    }
+
+	for(int res = LEFT_SWEEP; res <= RIGHT_SWEEP; res++)
+	    tilt[table * 3 + res] /= total;
+    }
+
+    /**
+     * Applies a random result to every table still open, drawn from a tilt.
+     *
+     * @return the odds of drawing these results uniformly over the odds of drawing them here
+     */
+    private double draw(double[] tilt, SplittableRandom random, int[] drawn) {
+	double likelihood = 1d;
+	double uniform = 1d / (twoFourOne ? 2 : 3);
+	for(int i = 0; i < openCount; i++) {
+	    int table = open[i];
+	    double u = random.nextDouble();
+	    int res = LEFT_SWEEP;
+	    while(res < RIGHT_SWEEP && (u -= tilt[table * 3 + res]) >= 0)
+		res++;
+
+	    apply(table, res);
+	    drawn[i] = res;
+	    likelihood *= uniform / tilt[table * 3 + res];
+	}
+
+	return likelihood;
+    }
+
+    private void undraw() {
+	for(int i = 0; i < openCount; i++)
+	    undo(open[i], result[open[i]]);
+    }
+
+    /**
+     * Counts the contenders ranked above a contender in the current outcome.
+     */
+    private int above(int player) {
+	pack(player);
+
+	int above = 0;
+	for(int i = 0; i < contenderCount; i++) {
+	    int other = contenders[i];
+	    pack(other);
+	    if(compare(other, player) < 0)
+		above++;
+	}
+
+	return above;
+    }
+
+    /**
+     * Classifies the players given the tables already decided, then counts every outcome of
+     * the tables from depth onwards.
+     */
+    private void count(int depth, Tally tally) {
+	long weight = multiplicity;
+	int tables = prepare(depth);
+
+	//the memo is only good for one order of tables
+	if(memo != null)
+	    memo.clear();
+
+	long before = tally.leaves;
+	counted = before;
+	int seats = Math.min(cutSize, order.length) - clinchedCount;
+	run(depth, contenders, contenderCount, seats, tally);
+	long leaves = tally.leaves - before;
+
+	//clinched players make the cut in every one of those outcomes
+	for(int player = 0; player < status.length; player++)
+	    if(status[player] == CLINCHED)
+		credit(player, leaves, tally);
+
+	if(progress != null)
+	    publish(tally, false);
+
+	restore(depth, tables, weight);
+    }
+
+    /**
+     * Publishes a copy of the tally being counted to the progress of the walk.
+     *
+     * @param partial true if the walk is still counting, and the clinched players have yet to
+     *        be credited with the outcomes counted so far
+     */
+    private void publish(Tally tally, boolean partial) {
+	var copy = tally();
+	copy.merge(tally);
+	if(partial)
+	    for(int player = 0; player < status.length; player++)
+		if(status[player] == CLINCHED)
+		    credit(player, copy.leaves - counted, copy);
+
+	progress.publish(part, copy);
+    }
+
+    /**
+     * Classifies the players, then collapses and orders the undecided tables.
+     * <p>
+     * A table is collapsed if neither player at it is a contender, an opponent of a contender
+     * (feeding their SoS), or an opponent of one (feeding their ESoS). Collapsed tables are
+     * moved past the end of the open tables, and each one multiplies the weight of every leaf.
+     *
+     * @param depth the number of open tables that have already been decided
+     * @return the number of open tables before collapsing, to be passed to restore()
+     */
+    int prepare(int depth) {
+	classify(depth);
+	System.arraycopy(open, depth, tableOrder, depth, openCount - depth);
+
+	int tables = openCount;
+	int kept = depth;
+	for(int i = depth; i < tables; i++)
+	    if(relevant(tableOrder[i]))
+		open[kept++] = tableOrder[i];
+
+	for(int i = depth; i < tables; i++)
+	    if(!relevant(tableOrder[i])) {
+		open[kept++] = tableOrder[i];
+		openCount--;
+		multiplicity *= twoFourOne ? 2 : 3;
+	    }
+
+	prioritize(depth);
+	return tables;
+    }
+
+    /**
+     * Undoes prepare(), putting back the collapsed tables and the original table order.
+     *
+     * @param depth the depth prepare() was called at
+     * @param tables the value prepare() returned
+     * @param weight the leaf weight before prepare() was called
+     */
+    void restore(int depth, int tables, long weight) {
+	openCount = tables;
+	multiplicity = weight;
+	System.arraycopy(tableOrder, depth, open, depth, openCount - depth);
+    }
+
+    /**
+     * Counts the undecided tables that can affect the ranking of a contender.
+     *
+     * @param depth the number of open tables that have already been decided
+     * @return the number of tables that would be walked after collapsing
+     */
+    int relevantTables(int depth) {
+	int count = 0;
+	for(int i = depth; i < openCount; i++)
+	    if(relevant(open[i]))
+		count++;
+
+	return count;
+    }
+
+    private boolean relevant(int table) {
+	return relevant[t.left[table]] || relevant[t.right[table]];
+    }
+
+    /**
+     * Orders the undecided tables so that the ones that can settle the cut are decided first.
+     * <p>
+     * Tables with contenders at them come first, then tables feeding a contender's SoS, then
+     * everything else. The sooner the contenders are settled, the sooner a subtree can be
+     * credited in bulk.
+     */
+    private void prioritize(int depth) {
+	for(int i = depth; i < openCount; i++) {
+	    int table = open[i];
+	    weight[table] = weight(t.left[table]) + weight(t.right[table]);
+	}
+
+	//insertion sort: stable, so equally weighted tables keep their order
+	for(int i = depth + 1; i < openCount; i++) {
+	    int cur = open[i];
+	    int j = i - 1;
+	    while(j >= depth && weight[open[j]] < weight[cur]) {
+		open[j+1] = open[j];
+		j--;
+	    }
+	    open[j+1] = cur;
+	}
+    }
+
+    private int weight(int player) {
+	if(status[player] == CONTENDER)
+	    return 4;
+
+	for(int e = t.first[player]; e < t.first[player+1]; e++)
+	    if(status[t.opponent[e]] == CONTENDER)
+		return 1;
+
+	return 0;
+    }
+
+    /**
+     * Credits a player with making the cut in a number of outcomes, all sharing the tables
+     * decided so far.
+     */
+    private void credit(int player, long leaves, Tally tally) {
+	tally.cut[player] += leaves;
+
+	int table = t.table[player];
+	if(table < 0)
+	    return;
+
+	if(result[table] >= 0)
+	    tally.own[player * 3 + result[table]] += leaves;
+	else {
+	    int branches = twoFourOne ? 2 : 3;
+	    for(int res = LEFT_SWEEP; res <= RIGHT_SWEEP; res++)
+		if(!twoFourOne || res != SPLIT)
+		    tally.own[player * 3 + res] += leaves / branches;
+	}
+    }
+
+    /**
+     * Counts every outcome below a node, where the given contenders are fighting for the given
+     * number of seats.
+     * <p>
+     * Once the seats are settled, the whole subtree is credited in one step. Otherwise, while
+     * there are at least two tables left, the contenders are bounded again, and anyone who has
+     * settled their place for the whole subtree is dropped from the list passed down.
+     */
+    private void run(int depth, int[] list, int count, int seats, Tally tally) {
+	int remaining = openCount - depth;
+
+	if(seats == 0 || count == seats) {
+	    long leaves = subtree[remaining] * multiplicity;
+	    for(int i = 0; i < seats; i++)
+		credit(list[i], leaves, tally);
+
+	    tally.leaves += leaves;
+	    return;
+	}
+
+	if(depth == openCount) {
+	    select(list, count, seats);
+	    tally.leaves += multiplicity;
+
+	    for(int i = 0; i < seats; i++) {
+		int player = list[i];
+		tally.cut[player] += multiplicity;
+
+		int table = t.table[player];
+		if(table >= 0)
+		    tally.own[player * 3 + result[table]] += multiplicity;
+	    }
+	    return;
+	}
+
+	if(remaining >= 2) {
+	    long leaves = subtree[remaining] * multiplicity;
+	    //the clock is only read if there is a deadline or someone watching
+	    if(progress != null || deadline != Long.MAX_VALUE) {
+		long now = System.nanoTime();
+		if(progress != null && now >= publishAt) {
+		    publish(tally, true);
+		    publishAt = now + progress.interval;
+		}
+
+		if(now > deadline) {
+		    //out of time: any contender left might make it anywhere below here
+		    for(int i = 0; i < count; i++)
+			tally.maybe[list[i]] += leaves;
+
+		    tally.unexplored += leaves;
+		    tally.leaves += leaves;
+		    return;
+		}
+	    }
+
+	    //narrow down the contenders for this subtree
+	    int[] next = levels[depth];
+	    int kept = 0;
+	    int taken = 0;
+
+	    bound(list, count);
+	    for(int i = 0; i < count; i++) {
+		int player = list[i];
+		int above = 0, maybeAbove = 0;
+		for(int j = 0; j < count; j++) {
+		    if(i == j)
+			continue;
+
+		    if(surelyAbove(list[j], player))
+			above++;
+		    if(!surelyAbove(player, list[j]))
+			maybeAbove++;
+		}
+
+		if(above >= seats)
+		    continue;
+		else if(maybeAbove < seats) {
+		    credit(player, leaves, tally);
+		    taken++;
+		}
+		else
+		    next[kept++] = player;
+	    }
+
+	    list = next;
+	    count = kept;
+	    seats -= taken;
+
+	    if(seats == 0 || count == seats) {
+		run(depth, list, count, seats, tally);
+		return;
+	    }
+
+	    if(memo != null && slices == null && remaining >= MEMO_TABLES) {
+		remember(depth, list, count, seats, tally);
+		return;
+	    }
+	}
+
+	branch(depth, list, count, seats, tally);
+    }
+
+    /**
+     * Counts every outcome below a node by trying each result of the next table.
+     */
+    private void branch(int depth, int[] list, int count, int seats, Tally tally) {
+	int table = open[depth];
+	for(int res = LEFT_SWEEP; res <= RIGHT_SWEEP; res++) {
+	    if(twoFourOne && res == SPLIT)
+		continue;
+
+	    if(slices != null)
+		mark(depth, list, count, tally);
+
+	    apply(table, res);
+	    run(depth + 1, list, count, seats, tally);
+	    undo(table, res);
+
+	    if(slices != null)
+		slice(depth, list, count, tally, slices[table * 3 + res]);
+	}
+    }
+
+    /**
+     * Notes the counts of a list of contenders, before walking a branch.
+     */
+    private void mark(int depth, int[] list, int count, Tally tally) {
+	var mark = marks[depth];
+	for(int i = 0; i < count; i++) {
+	    int player = list[i];
+	    mark[player * 4] = tally.cut[player];
+	    for(int res = LEFT_SWEEP; res <= RIGHT_SWEEP; res++)
+		mark[player * 4 + 1 + res] = tally.own[player * 3 + res];
+	}
+    }
+
+    /**
+     * Adds what walking a branch added to the counts of a list of contenders into a slice.
+     * Only the contenders are credited below a node, so that is everything the branch added.
+     * The leaves may have reordered the list, so the marks are kept by player.
+     */
+    private void slice(int depth, int[] list, int count, Tally tally, Tally slice) {
+	var mark = marks[depth];
+	for(int i = 0; i < count; i++) {
+	    int player = list[i];
+	    slice.cut[player] += tally.cut[player] - mark[player * 4];
+	    for(int res = LEFT_SWEEP; res <= RIGHT_SWEEP; res++)
+		slice.own[player * 3 + res] +=
+		    tally.own[player * 3 + res] - mark[player * 4 + 1 + res];
+	}
+    }
+
+    /**
+     * Counts every outcome below a node, replaying the tally of an equivalent node if the memo
+     * has one, and otherwise remembering what was counted.
+     * <p>
+     * Only the contenders are credited below a node once it has been narrowed down, so the
+     * difference in their counts is everything the subtree added. A subtree cut short by the
+     * deadline is not remembered.
+     */
+    private void remember(int depth, int[] list, int count, int seats, Tally tally) {
+	var players = Arrays.copyOf(list, count);
+	Arrays.sort(players);
+
+	//the remaining tables are fixed by the depth, so this is all that shapes the subtree
+	var packed = new long[4 + 4 * count];
+	packed[0] = depth;
+	packed[1] = seats;
+	packed[2] = multiplicity;
+	packed[3] = count;
+	for(int i = 0; i < count; i++) {
+	    int player = players[i];
+	    packed[4 + 4*i] = player;
+	    packed[5 + 4*i] = score[player];
+	    packed[6 + 4*i] = sos[player];
+	    packed[7 + 4*i] = esos[player];
+	}
+
+	var state = new Transpositions.State(packed);
+	var entry = memo.get(state);
+	long leaves = subtree[openCount - depth] * multiplicity;
+	if(entry != null) {
+	    for(int i = 0; i < count; i++) {
+		int player = players[i];
+		tally.cut[player] += entry.cut[i];
+
+		int table = t.table[player];
+		if(table < 0)
+		    continue;
+
+		//a decided table gets every outcome the player made it in, as it did before
+		if(result[table] >= 0)
+		    tally.own[player * 3 + result[table]] += entry.cut[i];
+		else
+		    for(int res = LEFT_SWEEP; res <= RIGHT_SWEEP; res++)
+			tally.own[player * 3 + res] += entry.own[i * 3 + res];
+	    }
+
+	    tally.leaves += leaves;
+	    return;
+	}
+
+	var cut = new long[count];
+	var own = new long[count * 3];
+	for(int i = 0; i < count; i++) {
+	    int player = players[i];
+	    cut[i] = -tally.cut[player];
+	    for(int res = LEFT_SWEEP; res <= RIGHT_SWEEP; res++)
+		own[i * 3 + res] = -tally.own[player * 3 + res];
+	}
+	long unexplored = tally.unexplored;
+
+	branch(depth, list, count, seats, tally);
+
+	if(tally.unexplored != unexplored)
+	    return;
+
+	for(int i = 0; i < count; i++) {
+	    int player = players[i];
+	    cut[i] += tally.cut[player];
+	    for(int res = LEFT_SWEEP; res <= RIGHT_SWEEP; res++)
+		own[i * 3 + res] += tally.own[player * 3 + res];
+	}
+
+	memo.put(state, new Transpositions.Entry(players, cut, own));
+    }
+
+    /**
+     * A callback for each outcome visited with walk().
+     */
+    interface Visitor {
+	void visit(Engine engine);
+    }
+
+    /**
+     * Visits every outcome of the open tables.
+     * <p>
+     * Tables are resolved in order, each as a left sweep, then a split, then a right sweep.
+     * The players are not ranked: a visitor asks for the placings it needs.
+     *
+     * @param visitor called once per outcome
+     */
+    void walk(Visitor visitor) {
+	walk(0, visitor);
+    }
+
+    private void walk(int depth, Visitor visitor) {
+	if(depth == openCount) {
+	    visitor.visit(this);
+	    return;
+	}
+
+	int table = open[depth];
+	for(int res = LEFT_SWEEP; res <= RIGHT_SWEEP; res++) {
+	    if(twoFourOne && res == SPLIT)
+		continue;
+
+	    apply(table, res);
+	    walk(depth + 1, visitor);
+	    undo(table, res);
+	}
+    }
+
+    /**
+     * Packs the ranking key of every player, and sorts the ranking buffer.
+     * <p>
+     * For netrunner, SoS is the score of all opponents / (3 * rounds), and ESoS is
+     * the SoS of all opponents / rounds, where a bye does not count as a round.
+     * <p>
+     * This is the only full sort, used to print the standings; the walks only ever select
+     * the players above the cut line.
+     */
+    void rank() {
+	int n = order.length;
+	for(int i = 0; i < n; i++)
+	    pack(i);
+
+	for(int i = 1; i < n; i++) {
+	    int cur = order[i];
+	    int j = i - 1;
+	    while(j >= 0 && compare(order[j], cur) > 0) {
+		order[j+1] = order[j];
+		j--;
+	    }
+	    order[j+1] = cur;
+	}
+    }
+
+    /**
+     * Classifies every player as clinched, eliminated or a contender.
+     * <p>
+     * Tables from depth onwards (that haven't been fixed) are treated as undecided. Each player's
+     * score is bounded by the results still open at their table, and their SoS and ESoS by the
+     * bounds of their opponents. If the lowest ranking key of one player beats the highest key
+     * of another, the first player is above the second in every outcome. A player with at
+     * least a cut's worth of players always above them is eliminated, and one with fewer than
+     * a cut's worth of players that might be above them has clinched.
+     *
+     * @param depth the number of open tables that have already been decided
+     */
+    void classify(int depth) {
+	int n = score.length;
+	for(int i = 0; i < n; i++)
+	    sosPlayers[i] = contenders[i] = i;
+	sosCount = n;
+	bound(contenders, n);
+
+	int line = Math.min(cutSize, n);
+	contenderCount = clinchedCount = 0;
+	for(int i = 0; i < n; i++) {
+	    int above = 0, maybeAbove = 0;
+	    for(int j = 0; j < n; j++) {
+		if(i == j)
+		    continue;
+
+		if(surelyAbove(j, i))
+		    above++;
+		if(!surelyAbove(i, j))
+		    maybeAbove++;
+	    }
+
+	    if(above >= line)
+		status[i] = ELIMINATED;
+	    else if(maybeAbove < line) {
+		status[i] = CLINCHED;
+		clinchedCount++;
+	    }
+	    else {
+		status[i] = CONTENDER;
+		contenders[contenderCount++] = i;
+	    }
+	}
+
+	//the contenders, and everyone they have played, need an SoS at every leaf
+	sosCount = 0;
+	var needed = new boolean[n];
+	for(int i = 0; i < contenderCount; i++) {
+	    int player = contenders[i];
+	    needed[player] = true;
+	    for(int e = t.first[player]; e < t.first[player+1]; e++)
+		needed[t.opponent[e]] = true;
+	}
+	for(int i = 0; i < n; i++)
+	    if(needed[i])
+		sosPlayers[sosCount++] = i;
+
+	//and the SoS of everyone they have played depends on those players' opponents
+	Arrays.fill(relevant, false);
+	for(int i = 0; i < sosCount; i++) {
+	    int player = sosPlayers[i];
+	    relevant[player] = true;
+	    for(int e = t.first[player]; e < t.first[player+1]; e++)
+		relevant[t.opponent[e]] = true;
+	}
+    }
+
+    /**
+     * Bounds the score of every player, the SoS of every player that matters to the contenders,
+     * and the ESoS of a list of players, over the results still open.
+     */
+    private void bound(int[] list, int count) {
+	int n = score.length;
+	for(int i = 0; i < n; i++) {
+	    lo[i] = hi[i] = score[i];
+	    int table = t.table[i];
+	    if(table >= 0 && result[table] < 0)
+		hi[i] += 6;
+	}
+
+	for(int k = 0; k < sosCount; k++) {
+	    int i = sosPlayers[k];
+	    int low = 0, high = 0;
+	    for(int e = t.first[i]; e < t.first[i+1]; e++) {
+		low += lo[t.opponent[e]];
+		high += hi[t.opponent[e]];
+	    }
+
+	    sosLo[i] = low * t.sosScale[i];
+	    sosHi[i] = high * t.sosScale[i];
+	}
+
+	for(int k = 0; k < count; k++) {
+	    int i = list[k];
+	    long low = 0, high = 0;
+	    for(int e = t.first[i]; e < t.first[i+1]; e++) {
+		int opp = t.opponent[e];
+		if(!t.bye[opp]) {
+		    low += sosLo[opp];
+		    high += sosHi[opp];
+		}
+	    }
+
+	    esosLo[i] = low * t.esosScale[i];
+	    esosHi[i] = high * t.esosScale[i];
+	}
+    }
+
+    /**
+     * Is player a above player b in every outcome still open?
+     */
+    private boolean surelyAbove(int a, int b) {
+	if(lo[a] != hi[b])
+	    return lo[a] > hi[b];
+	if(sosLo[a] != sosHi[b])
+	    return sosLo[a] > sosHi[b];
+	if(esosLo[a] != esosHi[b])
+	    return esosLo[a] > esosHi[b];
+
+	return t.nameRank[a] < t.nameRank[b];
+    }
+
+    /**
+     * Packs the ranking keys of a list of contenders, and moves the best of them to the front.
+     * <p>
+     * Only the first seats entries are kept sorted: everyone else is just compared against the
+     * worst of those, and swapped in if they rank above them. The list is carried from one leaf
+     * to the next, so the front is usually right already.
+     */
+    void select(int[] list, int count, int seats) {
+	for(int i = 0; i < count; i++)
+	    pack(list[i]);
+
+	for(int i = 1; i < count; i++) {
+	    int cur = list[i];
+	    int j = i - 1;
+	    if(i >= seats) {
+		if(compare(list[seats-1], cur) <= 0)
+		    continue;
+
+		//bump the worst of the front past the line
+		list[i] = list[seats-1];
+		j = seats - 2;
+	    }
+
+	    while(j >= 0 && compare(list[j], cur) > 0) {
+		list[j+1] = list[j];
+		j--;
+	    }
+	    list[j+1] = cur;
+	}
+    }
+
+    /**
+     * Compares two players by score, SoS, ESoS and then name.
+     *
+     * @return negative if a ranks above b
+     */
+    int compare(int a, int b) {
+	if(t.packed)
+	    return Long.compare(key[b], key[a]);
+
+	if(score[a] != score[b])
+	    return score[b] - score[a];
+
+	int res = Long.compare(sos[b], sos[a]);
+	if(res != 0) return res;
+
+	res = Long.compare(esos[b], esos[a]);
+	if(res != 0) return res;
+
+	return t.nameRank[a] - t.nameRank[b];
+    }
+
+    /**
+     * Counts the contenders ranked above a contender in the current outcome.
+     * <p>
+     * Only the contenders of the last classify() are packed and compared: whoever has clinched
+     * is in the cut in every outcome and whoever is eliminated is out of it, so a contender
+     * makes the cut exactly when fewer contenders than the seats left over rank above them.
+     *
+     * @param player the id of a contender
+     * @return the number of contenders ranked above the player
+     */
+    int contendersAbove(int player) {
+	for(int i = 0; i < contenderCount; i++)
+	    pack(contenders[i]);
+
+	int above = 0;
+	for(int i = 0; i < contenderCount; i++)
+	    if(compare(contenders[i], player) < 0)
+		above++;
+
+	return above;
+    }
+}
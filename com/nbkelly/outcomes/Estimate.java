@@ -0,0 +1,61 @@
+package com.nbkelly.outcomes;
+
+/**
+ * A running estimate of a probability from weighted samples.
+ * <p>
+ * Each sample contributes its likelihood weight if the event happened and nothing otherwise,
+ * so the mean of the contributions is an unbiased estimate of the probability, no matter how
+ * the samples were biased when they were drawn.
+ */
+class Estimate {
+    /** number of samples drawn */
+    long samples = 0;
+    /** sum of the contributions, and of their squares */
+    double sum = 0d;
+    double squares = 0d;
+
+    /**
+     * Adds the contribution of one sample.
+     *
+     * @param value the likelihood weight of the sample if the event happened, or 0
+     */
+    void add(double value) {
+	samples++;
+	sum += value;
+	squares += value * value;
+    }
+
+    /**
+     * Adds the samples of another estimate of the same probability into this one.
+     *
+     * @param other the estimate to merge
+     */
+    void merge(Estimate other) {
+	samples += other.samples;
+	sum += other.sum;
+	squares += other.squares;
+    }
+
+    /**
+     * Gets the estimated probability.
+     *
+     * @return the mean contribution of every sample
+     */
+    double mean() {
+	return samples == 0 ? 0d : sum / samples;
+    }
+
+    /**
+     * Gets the half-width of a 95% confidence interval around the estimate.
+     *
+     * @return the half-width of the interval
+     */
+    double halfInterval() {
+	if(samples == 0)
+	    return 1d;
+
+	double mean = mean();
+	double variance = Math.max(0d, squares / samples - mean * mean);
+	return Tally.Z * Math.sqrt(variance / samples);
+    }
+}
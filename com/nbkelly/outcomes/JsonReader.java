@@ -0,0 +1,228 @@
+package com.nbkelly.outcomes;
+
+/* imports */
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+
+/**
+ * Reads a JSON document one value at a time, as it streams in, without ever holding more of it
+ * than the value being read.
+ * <p>
+ * Objects and arrays are walked with begin/hasNext/end, and anything not wanted is skipped
+ * without being built.
+ */
+class JsonReader {
+    private final Reader in;
+    /** the next character, if it has been looked at but not taken, or -2 if not */
+    private int peeked = -2;
+
+    JsonReader(Reader in) {
+	this.in = in;
+    }
+
+    /**
+     * Looks at the first character of the next value, or of whatever ends the current object
+     * or array, without taking it.
+     *
+     * @return the character, or -1 at the end of the document
+     * @throws IOException if the document can't be read
+     */
+    int peek() throws IOException {
+	while(true) {
+	    int c = look();
+	    if(c != ' ' && c != '\t' && c != '\n' && c != '\r')
+		return c;
+
+	    take();
+	}
+    }
+
+    /**
+     * Starts reading an object.
+     */
+    void beginObject() throws IOException {
+	expect('{');
+    }
+
+    /**
+     * Finishes reading an object, once hasNext() has said there is nothing left in it.
+     */
+    void endObject() throws IOException {
+	expect('}');
+    }
+
+    /**
+     * Starts reading an array.
+     */
+    void beginArray() throws IOException {
+	expect('[');
+    }
+
+    /**
+     * Finishes reading an array, once hasNext() has said there is nothing left in it.
+     */
+    void endArray() throws IOException {
+	expect(']');
+    }
+
+    /**
+     * Is there another member of the current object or array? Takes the comma before it, if
+     * there is one.
+     */
+    boolean hasNext() throws IOException {
+	int c = peek();
+	if(c == ',') {
+	    take();
+	    c = peek();
+	}
+
+	if(c == -1)
+	    throw syntax("the document ended early");
+	return c != '}' && c != ']';
+    }
+
+    /**
+     * Reads the name of the next member of an object, and the colon after it.
+     */
+    String nextName() throws IOException {
+	var name = nextString();
+	expect(':');
+	return name;
+    }
+
+    /**
+     * Reads a string.
+     */
+    String nextString() throws IOException {
+	expect('"');
+	var string = new StringBuilder();
+	while(true) {
+	    int c = take();
+	    if(c == '"')
+		return string.toString();
+	    if(c == -1)
+		throw syntax("the document ended inside a string");
+	    if(c != '\\') {
+		string.append((char)c);
+		continue;
+	    }
+
+	    c = take();
+	    switch(c) {
+	    case 'b': string.append('\b'); break;
+	    case 'f': string.append('\f'); break;
+	    case 'n': string.append('\n'); break;
+	    case 'r': string.append('\r'); break;
+	    case 't': string.append('\t'); break;
+	    case 'u':
+		int code = 0;
+		for(int i = 0; i < 4; i++) {
+		    int digit = Character.digit(take(), 16);
+		    if(digit < 0)
+			throw syntax("bad unicode escape");
+		    code = code * 16 + digit;
+		}
+		string.append((char)code);
+		break;
+	    case -1:
+		throw syntax("the document ended inside a string");
+	    default:
+		//\" \\ and \/ stand for themselves
+		string.append((char)c);
+	    }
+	}
+    }
+
+    /**
+     * Reads a whole number, or null. A number with a fraction or exponent is only read if it is
+     * still a whole number (like 6.0), since anything else would have to be rounded.
+     *
+     * @return the number, or null if the value was null
+     * @throws IOException if the value isn't a whole number that fits in an int, or null
+     */
+    Integer nextInteger() throws IOException {
+	if(peek() == 'n') {
+	    word("null");
+	    return null;
+	}
+
+	var number = number();
+	try {
+	    return number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0
+		? Integer.parseInt(number)
+		: new BigDecimal(number).intValueExact();
+	}
+	catch(NumberFormatException | ArithmeticException e) {
+	    throw syntax("expected a whole number, not " + number);
+	}
+    }
+
+    /**
+     * Skips the next value, whatever it is.
+     */
+    void skipValue() throws IOException {
+	int c = peek();
+	if(c == '{' || c == '[') {
+	    take();
+	    while(hasNext()) {
+		if(c == '{')
+		    nextName();
+		skipValue();
+	    }
+	    take();
+	}
+	else if(c == '"')
+	    nextString();
+	else if(c == 't')
+	    word("true");
+	else if(c == 'f')
+	    word("false");
+	else if(c == 'n')
+	    word("null");
+	else
+	    number();
+    }
+
+    /**
+     * Takes the text of a number, without working out what it is.
+     */
+    private String number() throws IOException {
+	var number = new StringBuilder();
+	for(int c = peek(); c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E'
+		|| (c >= '0' && c <= '9'); c = look())
+	    number.append((char)take());
+
+	if(number.length() == 0)
+	    throw syntax("expected a value");
+	return number.toString();
+    }
+
+    private void word(String word) throws IOException {
+	for(int i = 0; i < word.length(); i++)
+	    if(take() != word.charAt(i))
+		throw syntax("expected " + word);
+    }
+
+    private void expect(char c) throws IOException {
+	if(peek() != c)
+	    throw syntax("expected '" + c + "'");
+	take();
+    }
+
+    private int look() throws IOException {
+	if(peeked == -2)
+	    peeked = in.read();
+	return peeked;
+    }
+
+    private int take() throws IOException {
+	int c = look();
+	peeked = -2;
+	return c;
+    }
+
+    private IOException syntax(String message) {
+	return new IOException("Malformed JSON: " + message);
+    }
+}
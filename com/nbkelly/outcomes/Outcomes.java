@@ -2,16 +2,26 @@ package com.nbkelly.outcomes;
 
 /* imports */
 import com.nbkelly.aux.Drafter;
+import com.nbkelly.aux.BooleanCommand;
 import com.nbkelly.aux.Command;
 import com.nbkelly.aux.FileCommand;
 import com.nbkelly.aux.IntCommand;
+import com.nbkelly.aux.RegexCommand;
 import com.nbkelly.aux.StringCommand;
 import com.nbkelly.aux.Timer;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
 import java.util.TreeSet;
 import java.util.HashMap;
 import java.util.Collections;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Extension of Drafter directed towards a general case.
@@ -26,42 +36,134 @@ public class Outcomes extends Drafter {
      *  the rest of your work should be based around the solveProblem() function
      */
     ArrayList<String> pairings;
+    File pairingsFile;
+    boolean watch = false;
+    Integer serve = 0;
+    /** the address to serve on, and the origin browsers may read what is served from */
+    String host = "127.0.0.1";
+    String origin = "https://nbkelly.github.io";
+    Integer cacheSize = 64;
+    long cacheTtl = CACHE_TTL;
+    /** tallies shared with other runs in the same JVM (by the daemon), if any */
+    TallyCache cache = null;
+    /** result stores shared with other runs in the same JVM (by the daemon), by path, if any */
+    HashMap<Path, ResultStore> stores = null;
+    /** true if running for the daemon, which must not exit */
+    private boolean daemon = false;
     Integer roundCount;
     Integer cutSize;
     String inspectPlayer;
     Integer scenarioMax = 5;
     String showOpponents = null;
+    Integer threads = 1;
+    Integer splitDepth = 0;
+    ForkJoinPool pool = null;
+    Integer samples = 0;
+    Double error = null;
+    SplittableRandom random = null;
+    String focus = null;
+    Long budget = null;
+    Integer memo = 64;
+    ResultStore store = null;
+    /** where to read the tournament from on cobr.ai, if not the pairings file */
+    Cobra cobra = null;
+
+    /** number of samples drawn before checking the error for the first time */
+    static final int SAMPLE_BATCH = 10000;
+    /** the error sampled to when there are too many outcomes to count, if none was given */
+    static final double UNCOUNTABLE_ERROR = 0.005;
+    /** the smallest error we will sample down to */
+    static final double MIN_ERROR = 0.00001;
+    /** number of samples drawn for a focused estimate, if no number was given */
+    static final int FOCUS_SAMPLES = 100000;
+    /** how long the pairings file must be left alone before it is read again, in ms */
+    static final long DEBOUNCE = 200;
+    /** how often a walk being watched publishes its progress, in ns */
+    static final long PROGRESS_INTERVAL = 250_000_000L;
+    /** how long the server keeps each tally for, if not told otherwise */
+    static final long CACHE_TTL = 60_000_000_000L;
+    /** how often cobr.ai is asked for new results when watching, in ms */
+    static final long POLL = 30_000;
     
     /* solve problem here */
     @Override public int solveProblem() throws Exception {
 	Timer t = makeTimer();
 
-	var opps = new HashMap<String, TreeSet<String>>();
-	var scores = new HashMap<String, Integer>();
-	var free = new HashMap<String, String>();
+	if(serve > 0) {
+	    var server = new Server(this, host, serve, origin);
+	    println("Serving on " + server.address());
+	    server.serve();
+	    return 0;
+	}
+
+	var parsed = cobra != null ? fetch(roundCount) : parse(pairings, roundCount);
+	if(watch)
+	    watch(parsed);
+	else
+	    analyse(parsed, null, null);
+
+	//println(ssf_simple);
+	return DEBUG(1, t.split("Finished Processing"));
+    }
+
+    /**
+     * A parsed set of pairings: everyone's opponents and scores, the open tables, and the
+     * tournament interned from them.
+     */
+    static class Parsed {
+	/** the lines of the pairings file, or null if the pairings came from cobr.ai */
+	final ArrayList<String> lines;
+	final HashMap<String, TreeSet<String>> opps = new HashMap<>();
+	final HashMap<String, Integer> scores = new HashMap<>();
+	final HashMap<String, String> free = new HashMap<>();
+	Tournament tournament;
+
+	Parsed(ArrayList<String> lines) {
+	    this.lines = lines;
+	}
+    }
+
+    Parsed parse(ArrayList<String> pairings, int roundCount) {
+	var parsed = new Parsed(pairings);
 
 	//every two pairings is a set
-	for(int i = 0; i < pairings.size(); i+= 4) {
-	    var left = pairings.get(i);
-	    var left_score = parse_score(pairings.get(i+1));
+	for(int i = 0; i < pairings.size(); i+= 4)
+	    table(parsed, pairings.get(i), parse_score(pairings.get(i+1)),
+		  pairings.get(i+2), parse_score(pairings.get(i+3)));
 
-	    var right = pairings.get(i+2);
-	    var right_score = parse_score(pairings.get(i+3));
+	return intern(parsed, roundCount);
+    }
 
-	    entry(opps, left, right);
-	    entry(opps, right, left);
+    /**
+     * Adds a table to a set of pairings.
+     *
+     * @param left_score the score of the player on the left, or null if it isn't in
+     * @param right_score the score of the player on the right, or null if it isn't in
+     */
+    void table(Parsed parsed, String left, Integer left_score, String right, Integer right_score) {
+	entry(parsed.opps, left, right);
+	entry(parsed.opps, right, left);
 
-	    if(left_score != null)
-		score(scores, left, left_score);
-	    else
-		free(free, left, right);
+	if(left_score != null)
+	    score(parsed.scores, left, left_score);
+	else
+	    free(parsed.free, left, right);
 
-	    if(right_score != null)
-		score(scores, right, right_score);
-	    else
-		free(free, left, right);
-	}
+	if(right_score != null)
+	    score(parsed.scores, right, right_score);
+	else
+	    free(parsed.free, left, right);
+    }
 
+    /**
+     * Interns the tournament of a set of pairings, once every table has been added.
+     *
+     * @return the pairings
+     */
+    Parsed intern(Parsed parsed, int roundCount) {
+	var opps = parsed.opps;
+	var scores = parsed.scores;
+	var free = parsed.free;
 
 	/* print out listings */
 	DEBUG(2, "OPPONENTS:");
@@ -82,30 +184,256 @@ public class Outcomes extends Drafter {
 
 	DEBUG();
 
-	if(free.size() == 0)
-	    calculate_outcomes(opps, scores, free, roundCount, cutSize, false);
-	else {
-	    println(calculate_outcomes(opps, scores, free, roundCount, cutSize, false));
-	    println(calculate_outcomes(opps, scores, free, roundCount, cutSize, true));
+	parsed.tournament = new Tournament(opps, scores, free, roundCount);
+	return parsed;
+    }
+
+    /**
+     * Reads the pairings from cobr.ai.
+     *
+     * @return the pairings, which are the same object as last time if nothing has changed
+     */
+    Parsed fetch(int roundCount) throws IOException {
+	var parsed = cobra.fetch(this, roundCount);
+	DEBUGF(2, "Read %s from %s%s: %d round(s) changed, %d unchanged%n",
+	       cobra.name, cobra.uri, cobra.cached ? " (the copy in the cache)" : "",
+	       cobra.changed, cobra.unchanged);
+	return parsed;
+    }
 
-	    var playersSafeToID = safeToId(opps, scores, free, roundCount, cutSize);
-	    var ssf_simple = sweepSplitFold(opps, scores, free, roundCount, cutSize);
+    /**
+     * Prints the odds, contention and safe-to-ID tables (and anything else asked for) for a set
+     * of pairings.
+     *
+     * @param parsed the pairings
+     * @param tally the tally of every outcome, or null to work it out
+     * @param twoFourOne the tally of every outcome with 241s enforced, or null to work it out
+     */
+    private void analyse(Parsed parsed, Tally tally, Tally twoFourOne) {
+	var tournament = parsed.tournament;
+	var free = parsed.free;
 
-	    sweepSplitFold_display(ssf_simple);
+	if(free.size() == 0)
+	    calculate_outcomes(tournament, cutSize, false);
+	else if(focus != null)
+	    focus(focus, tournament, cutSize);
+	else {
+	    //both walks share the time allowed, rather than each taking all of it
+	    var deadline = budget == null ? null : System.nanoTime() + budget;
+
+	    //one walk over every outcome answers the odds, contention and ID questions
+	    if(tally == null)
+		tally = run(new Engine(tournament, cutSize, false), null, deadline);
+	    println(calculate_outcomes(tournament, tally, cutSize, false));
+
+	    if(twoFourOne == null)
+		twoFourOne = run(new Engine(tournament, cutSize, true), null, deadline);
+	    println(calculate_outcomes(tournament, twoFourOne, cutSize, true));
+
+	    if(tally.exact()) {
+		var playersSafeToID = safeToId(tournament, tally, cutSize);
+		var ssf_simple = sweepSplitFold(tournament, tally, cutSize);
+
+		sweepSplitFold_display(ssf_simple);
+		if(tally.sampled() && ssf_simple.size() > 0)
+		    printf("(sampled: each figure is within %.3f%% either way, 19 times in 20)%n",
+			   widestOwn(tournament, tally) * 100);
+	    }
+	    else
+		println("(out of time: the sweep/split/fold table needs every outcome)");
 	}
 
 	if(inspectPlayer != null && free.size() > 0) {
 	    println();
-	    inspectPlayer(inspectPlayer, scenarioMax, opps, scores, free, roundCount, cutSize);
+	    inspectPlayer(inspectPlayer, scenarioMax, tournament, cutSize);
 	}
 
 	if(showOpponents != null) {
 	    println();
-	    showOpponents(showOpponents, opps, scores);
+	    showOpponents(showOpponents, parsed.opps, parsed.scores);
 	}
+    }
 
-	//println(ssf_simple);
-	return DEBUG(1, t.split("Finished Processing"));
+    /**
+     * Prints the odds, then prints them again whenever the pairings file changes (or cobr.ai
+     * has new results), until the process is stopped.
+     * <p>
+     * Bursts of writes are waited out before the file is read again. If all that changed is that
+     * some open tables reported their scores, the new odds are the slices of the last walk for
+     * those results (see Delta), and only the tables still open are walked again. Anything else
+     * - new pairings, corrected scores - is worked out afresh, as is everything when sampling or
+     * focusing, which have no slices to reuse.
+     */
+    private void watch(Parsed parsed) throws IOException, InterruptedException {
+	Path path = null;
+	WatchService watcher = null;
+	if(cobra == null) {
+	    path = pairingsFile.toPath().toAbsolutePath();
+	    watcher = path.getFileSystem().newWatchService();
+	    path.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+				      StandardWatchEventKinds.ENTRY_MODIFY);
+	}
+
+	boolean slicing = samples == 0 && error == null && budget == null && focus == null;
+	Delta all = null, twoFourOne = null;
+	while(true) {
+	    Timer t = makeTimer();
+	    if(slicing && parsed.free.size() > 0 && Engine.countable(parsed.tournament, false)) {
+		if(all == null)
+		    all = new Delta(parsed.tournament, cutSize, false);
+		if(twoFourOne == null)
+		    twoFourOne = new Delta(parsed.tournament, cutSize, true);
+
+		analyse(parsed, all.tally().remap(all.t, parsed.tournament),
+			twoFourOne.tally().remap(twoFourOne.t, parsed.tournament));
+	    }
+	    else
+		analyse(parsed, null, null);
+	    DEBUG(1, t.split("Finished Processing"));
+
+	    var next = cobra == null ? reread(watcher, path, parsed) : poll(parsed);
+	    var reported = reported(parsed, next);
+	    println();
+	    if(reported == null) {
+		println("== Pairings changed: working everything out again ==");
+		all = twoFourOne = null;
+	    }
+	    else {
+		println(String.format("== %d table(s) reported ==", reported.size()));
+		all = report(all, reported);
+		twoFourOne = report(twoFourOne, reported);
+	    }
+
+	    println();
+	    parsed = next;
+	}
+    }
+
+    /**
+     * Waits for the pairings file to change, and to parse.
+     */
+    private Parsed reread(WatchService watcher, Path path, Parsed parsed)
+	throws InterruptedException {
+	while(true) {
+	    await(watcher, path.getFileName());
+	    var lines = readFileLines(pairingsFile);
+	    if(lines == null || lines.equals(parsed.lines))
+		continue;
+
+	    try {
+		return parse(lines, roundCount);
+	    }
+	    catch(RuntimeException e) {
+		//most likely caught halfway through being written: the next write will fix it
+		println("Could not read the pairings (" + e + "), waiting for them to change");
+	    }
+	}
+    }
+
+    /**
+     * Asks cobr.ai for the pairings every so often, until they change.
+     */
+    private Parsed poll(Parsed parsed) throws InterruptedException {
+	while(true) {
+	    Thread.sleep(POLL);
+	    try {
+		var next = fetch(roundCount);
+		//the name, or a round of the cut, may have changed without the swiss changing
+		if(!next.opps.equals(parsed.opps) || !next.scores.equals(parsed.scores)
+		   || !next.free.equals(parsed.free))
+		    return next;
+	    }
+	    catch(IOException | RuntimeException e) {
+		println("Could not read the pairings from cobr.ai (" + e + "), trying again");
+	    }
+	}
+    }
+
+    /**
+     * Waits until a file in a watched directory has changed, and then been left alone for a
+     * moment.
+     */
+    private void await(WatchService watcher, Path name) throws InterruptedException {
+	boolean touched = false;
+	for(var key = watcher.take(); key != null;
+	    key = touched ? watcher.poll(DEBOUNCE, TimeUnit.MILLISECONDS) : watcher.take()) {
+	    for(var event : key.pollEvents())
+		touched |= event.kind() == StandardWatchEventKinds.OVERFLOW
+		    || name.equals(event.context());
+	    key.reset();
+	}
+    }
+
+    /**
+     * Works out which open tables have reported since the pairings were last read.
+     *
+     * @return the result at each table that reported (in table terms), by the name of the
+     *         player on the left, or null if anything else has changed
+     */
+    private HashMap<String, Integer> reported(Parsed before, Parsed after) {
+	if(!before.opps.equals(after.opps))
+	    return null;
+
+	//the points everyone should have gained: nothing, unless their table reported
+	var gained = new HashMap<String, Integer>();
+	var reported = new HashMap<String, Integer>();
+	for(var entry : before.free.entrySet()) {
+	    var left = entry.getKey();
+	    var right = entry.getValue();
+	    if(right.equals(after.free.get(left)))
+		continue;
+
+	    int leftPoints = gained(before, after, left);
+	    int rightPoints = gained(before, after, right);
+	    int res = Delta.result(leftPoints, rightPoints);
+	    if(res < 0)
+		return null;
+
+	    reported.put(left, res);
+	    gained.put(left, leftPoints);
+	    gained.put(right, rightPoints);
+	}
+
+	for(var entry : after.free.entrySet())
+	    if(!entry.getValue().equals(before.free.get(entry.getKey())))
+		return null;
+
+	for(var name : after.opps.keySet())
+	    if(gained(before, after, name) != gained.getOrDefault(name, 0))
+		return null;
+
+	return reported;
+    }
+
+    private int gained(Parsed before, Parsed after, String player) {
+	return after.scores.getOrDefault(player, 0) - before.scores.getOrDefault(player, 0);
+    }
+
+    /**
+     * Reports tables to a delta.
+     *
+     * @param delta the delta
+     * @param reported the result at each table, by the name of the player on the left
+     * @return the delta, or null if it couldn't take a result (a split, when enforcing 241s)
+     */
+    private Delta report(Delta delta, HashMap<String, Integer> reported) {
+	if(delta == null)
+	    return null;
+
+	for(var entry : reported.entrySet()) {
+	    int player = delta.t.ids.get(entry.getKey());
+	    int table = delta.t.table[player];
+	    int res = entry.getValue();
+	    try {
+		delta.report(table, delta.t.left[table] == player ? res : 2 - res);
+	    }
+	    catch(IllegalArgumentException e) {
+		DEBUG(2, e.getMessage() + ": walking every outcome again");
+		return null;
+	    }
+	}
+
+	return delta;
     }
 
     private void showOpponents(String player, HashMap<String, TreeSet<String>> opponents,
@@ -119,147 +447,105 @@ public class Outcomes extends Drafter {
     }
     
     private void inspectPlayer(String player, Integer scenarioMax,
-			       HashMap<String, TreeSet<String>> opponents,
-			       HashMap<String, Integer> scores,
-			       HashMap<String, String> free,
-			       int num_rounds, int cut_size){
-	if(free.size() == 0)
+			       Tournament tournament, int cut_size){
+	if(tournament.openTables() == 0)
 	    return;
 
 	//how can this work? we need to produce a set of scenarios
-	//to do this, we pass a 'scenario' into the recursive function
-	//each recursive function returns a list of valid scenarios in which the player makes it
-	ArrayList<String> baseScenario = new ArrayList<>();
+	//each outcome in which the player makes the cut is written out as a scenario
+	var shown = new ArrayList<int[]>();
+	long scenarios = inspectPlayer_scenarios(player, tournament, cut_size, scenarioMax, shown);
 
-	var scenarios = inspectPlayer_recursive(player, baseScenario,
-				opponents, scores, free, num_rounds, cut_size);
-
-	if(scenarios.size() == (int)(Math.pow(3, free.size()))) {
+	if(scenarios == (long)(Math.pow(3, tournament.openTables()))) {
 	    printf("%s makes it to the top cut in all %d scenarios%n",
-		   player, scenarios.size());
+		   player, scenarios);
 	    return;
 	}
 	
 	printf("There are %d scenarios where %s makes it to the top cut%n%n",
-	       scenarios.size(), player);
+	       scenarios, player);
 
 	int index = 1;
-	for(var scenario : scenarios) {
-	    if(index >  scenarioMax && index <= scenarios.size()) {
-		printf("... and %d other scenarios%n", scenarios.size() - index + 1);
-		break;
-	    }
-	    
+	for(var scenario : shown) {
 	    StringBuilder sc = new StringBuilder(String.format("Scenario %d:%n", index++));
-	    scenario.stream().forEach(s -> sc.append("    " + s + "\n"));
+	    for(int table = 0; table < tournament.openTables(); table++)
+		sc.append(String.format("    %-20s %s %20s\n",
+					tournament.names[tournament.left[table]],
+					RESULTS[scenario[table]],
+					tournament.names[tournament.right[table]]));
 	    println(sc);
 	}
-    }
 
-    private ArrayList<ArrayList<String>>
-	inspectPlayer_recursive(String player,
-				ArrayList<String> scenario,
-				HashMap<String, TreeSet<String>> opponents,
-				HashMap<String, Integer> scores,
-				HashMap<String, String> free,
-				int num_rounds, int cut_size){
-	var res = new ArrayList<ArrayList<String>>();
-	
-	//if free is empty, then see if we won
-	if(free.size() == 0) {
-	    var standings = new ArrayList<Standing>();
-
-	    for(var entry : scores.entrySet())
-		standings.add(new Standing(entry.getKey(), entry.getValue()));
-
-	    standings.stream().forEach(x -> x.makeSOS(scores, opponents, num_rounds));
-	    standings.stream().forEach(x -> x.makeESOS(opponents, standings, num_rounds));
-
-	    Collections.sort(standings);
+	if(scenarios > shown.size())
+	    printf("... and %d other scenarios%n", scenarios - shown.size());
+    }
 
-	    int index = 1;
-	    for(; index <= cut_size && index < standings.size(); index++)
-		if(standings.get(index-1).name.equals(player)) {
-		    //we "won", which means this is a valid scenario
-		    //so we return a new singleton arraylist with this scenario in it
-		    res.add(scenario);
-		    break;
-		}
-	    return res;
-	}
+    /**
+     * Counts the outcomes in which a player makes the cut, keeping the first few.
+     *
+     * @param max the number of scenarios to keep
+     * @param shown where to keep them: the result at each open table
+     * @return the number of outcomes in which the player makes the cut
+     */
+    long inspectPlayer_scenarios(String player, Tournament tournament, int cut_size, int max,
+				 ArrayList<int[]> shown) {
+	var id = tournament.ids.get(player);
+	if(id == null)
+	    return 0;
+
+	//the last placed player never counts as making it
+	int line = Math.min(cut_size, tournament.size() - 1);
+	var engine = new Engine(tournament, line, false);
+
+	//only the contenders need ranking at each outcome
+	engine.classify(0);
+	if(engine.status[id] == Engine.ELIMINATED)
+	    return 0;
+
+	boolean clinched = engine.status[id] == Engine.CLINCHED;
+	int seats = line - engine.clinchedCount;
+	var count = new long[1];
+	engine.walk(e -> {
+		if(!clinched && e.contendersAbove(id) >= seats)
+		    return;
+
+		//we "won", which means this is a valid scenario
+		if(count[0]++ < max)
+		    shown.add(e.result.clone());
+	    });
+
+	return count[0];
+    }
 
-	//resolve another pairing and see how it goes
-	var new_free = new HashMap<String, String>(free);
+    /** how each result code is written in a scenario */
+    private static final String[] RESULTS = {"6 - 0", "3 - 3", "0 - 6"};
 
-	var s1 = new HashMap<String, Integer>(scores);
-	var s2 = new HashMap<String, Integer>(scores);
-	var s3 = new HashMap<String, Integer>(scores);
+    private TreeSet<String> free_players(Tournament tournament) {
+	TreeSet<String> free_players = new TreeSet<>();
 
-	String left_player = null;
-	String right_player = null;
-	for(var entry : new_free.entrySet()) {
-	    left_player = entry.getKey();
-	    right_player = entry.getValue();
-	    new_free.remove(left_player);
-	    break;
+	for(int table = 0; table < tournament.openTables(); table++) {
+	    free_players.add(tournament.names[tournament.left[table]]);
+	    free_players.add(tournament.names[tournament.right[table]]);
 	}
 
-	s1.put(left_player, s1.get(left_player) + 6); //sweep
-	s2.put(left_player, s2.get(left_player) + 3); //split city
-	s2.put(right_player, s2.get(right_player) + 3); //split city
-	s3.put(right_player, s3.get(right_player) + 6); //sweep
-
-	var scenario1 = new ArrayList<String>(scenario);
-	var scenario2 = new ArrayList<String>(scenario);
-	var scenario3 = new ArrayList<String>(scenario);
-
-	scenario1.add(String.format("%-20s 6 - 0 %20s", left_player, right_player));
-	scenario2.add(String.format("%-20s 3 - 3 %20s", left_player, right_player));
-	scenario3.add(String.format("%-20s 0 - 6 %20s", left_player, right_player));
-
-	res.addAll(inspectPlayer_recursive(player, scenario1, opponents, s1, new_free,
-					   num_rounds, cut_size));
-	res.addAll(inspectPlayer_recursive(player, scenario2, opponents, s2, new_free,
-					   num_rounds, cut_size));
-	res.addAll(inspectPlayer_recursive(player, scenario3, opponents, s3, new_free,
-					   num_rounds, cut_size));
-
-	return res;
+	return free_players;
     }
 
-    private TreeSet<String> safeToId(HashMap<String, TreeSet<String>> opponents,
-				     HashMap<String, Integer> scores,
-				     HashMap<String, String> free,
-				     int num_rounds, int cut_size) {
-	TreeSet<String> free_players = new TreeSet<>();
-
-	for(var entry : free.entrySet()) {
-	    free_players.add(entry.getKey());
-	    free_players.add(entry.getValue());
-	}
-
+    TreeSet<String> safeToId(Tournament tournament, Tally tally, int cut_size) {
 	TreeSet<String> safe_to_id = new TreeSet<String>();
-	for(var player : free_players) {
-	    if(safeToId(player, opponents, scores, free, num_rounds, cut_size))
+	for(var player : free_players(tournament)) {
+	    if(safeToId(player, tournament, tally, cut_size))
 		safe_to_id.add(player);
 	}
 
 	return safe_to_id;
     }
 
-    private HashMap<String, ArrayList<Double>>
-	sweepSplitFold(HashMap<String, TreeSet<String>> opponents, HashMap<String, Integer> scores,
-		       HashMap<String, String> free, int num_rounds, int cut_size) {
-	TreeSet<String> free_players = new TreeSet<>();
-
-	for(var entry : free.entrySet()) {
-	    free_players.add(entry.getKey());
-	    free_players.add(entry.getValue());
-	}
-
+    HashMap<String, ArrayList<Double>>
+	sweepSplitFold(Tournament tournament, Tally tally, int cut_size) {
 	var res = new HashMap<String, ArrayList<Double>>();
-	for(var player : free_players)
-	    res.put(player, sweepSplitFold(player, opponents, scores, free, num_rounds, cut_size));
+	for(var player : free_players(tournament))
+	    res.put(player, sweepSplitFold(player, tournament, tally, cut_size));
 
 	return res;
     }
@@ -287,338 +573,522 @@ public class Outcomes extends Drafter {
     }
 
     private ArrayList<Double> sweepSplitFold(String player,
-					      HashMap<String, TreeSet<String>> opponents,
-					      HashMap<String, Integer> scores, //clone
-					      HashMap<String, String> free, //clone
-					      int num_rounds, int cut_size) {
-	var new_free = new HashMap<String, String>(free);
-
-	var s1 = new HashMap<String, Integer>(scores);
-	var s2 = new HashMap<String, Integer>(scores);
-	var s3 = new HashMap<String, Integer>(scores);
-	
-	var left_player = player;
-	String right_player = null;
-	for(var entry : new_free.entrySet())
-	    if(entry.getKey().equals(player) || entry.getValue().equals(player)) {
-		new_free.remove(entry.getKey());
-		if(entry.getKey().equals(player))
-		    right_player = entry.getValue();
-		else
-		    right_player = entry.getKey();
+					      Tournament tournament,
+					      Tally tally,
+					      int cut_size) {
+	int id = tournament.ids.get(player);
+	var left = tournament.left[tournament.tableOf(id)] == id;
 
-		break;
-	    }
+	//sweep, split and fold, from the point of view of the player
+	int[] results = left
+	    ? new int[] {Engine.LEFT_SWEEP, Engine.SPLIT, Engine.RIGHT_SWEEP}
+	    : new int[] {Engine.RIGHT_SWEEP, Engine.SPLIT, Engine.LEFT_SWEEP};
 
-	s1.put(left_player, s1.get(left_player) + 6); //sweep
-	s2.put(left_player, s2.get(left_player) + 3); //split city
-	s2.put(right_player, s2.get(right_player) + 3); //split city
-	s3.put(right_player, s3.get(right_player) + 6); //sweep
+	ArrayList<Double> res = new ArrayList<Double>();
 
+	/* read all 3 simulations from the tally */
+	for(var result : results)
+	    res.add(ownOdds(id, result, tournament, tally, cut_size));
 
-	var outcomes1 = new HashMap<String, Integer>();
-	var outcomes2 = new HashMap<String, Integer>();
-	var outcomes3 = new HashMap<String, Integer>();
+	return res;
+    }
 
-	var twofourone = false;
-	    /* run all 3 simulations */
-	calculate_recursive(opponents, s1, new_free, num_rounds, cut_size,
-			    outcomes1, twofourone);
-	calculate_recursive(opponents, s2, new_free, num_rounds, cut_size,
-			    outcomes2, twofourone);
-	calculate_recursive(opponents, s3, new_free, num_rounds, cut_size,
-			    outcomes3, twofourone);
+    private boolean safeToId(String player, Tournament tournament, Tally tally, int cut_size) {
+	//look only at the outcomes where the player's game is a split
+	int id = tournament.ids.get(player);
 
-	var outcomes = new ArrayList<HashMap<String, Integer>>();
-	outcomes.add(outcomes1);
-	outcomes.add(outcomes2);
-	outcomes.add(outcomes3);
+	//find ourselves in outcomes if possible
+	var outcome = tally.own(id, Engine.SPLIT);
+	if(outcome == 0)
+	    return false;
 
-	ArrayList<Double> res = new ArrayList<Double>();
+	DEBUGF("ID odds for %s: %6.3f%n", player, ownOdds(id, Engine.SPLIT, tournament, tally, cut_size));
 
-	for(var outcome : outcomes) {
-	    if(!outcome.containsKey(player)) {
-		res.add(0d);
-		continue;
-	    }
+	//see if it's 100% (counted, rather than worked out as odds, so it can't overflow)
+	return outcome == tally.outcomes(tournament.tableOf(id), Engine.SPLIT);
+    }
 
-	    var total = 0;
-	    for(var entry : outcome.entrySet())
-		total += entry.getValue();
+    /**
+     * Odds of a player making the cut, given a fixed result at their own table.
+     */
+    private double ownOdds(int player, int result, Tournament tournament, Tally tally, int cut_size) {
+	var outcome = tally.own(player, result);
+	if(outcome == 0)
+	    return 0d;
 
-	    var outcome_result = (outcome.get(player)/ (double)total) *(100*cut_size);
-	    res.add(outcome_result);
-	}
+	double total = ownTotal(tournament, tally, tournament.tableOf(player), result, cut_size);
+	return (outcome / total) *(100*cut_size);
+    }
 
-	return res;
+    /**
+     * Total cut places handed out over the outcomes sharing a result at a given table.
+     */
+    private double ownTotal(Tournament tournament, Tally tally, int table, int result, int cut_size) {
+	return tally.outcomes(table, result) * (double)Math.min(cut_size, tournament.size());
     }
 
-    private boolean safeToId(String player, HashMap<String, TreeSet<String>> opponents,
-			     HashMap<String, Integer> scores, //clone
-			     HashMap<String, String> free, //clone
-			     int num_rounds, int cut_size) {
-	//remove the player from the set of free rounds, and update scores
-	var new_free = new HashMap<String, String>(free);
-	var scenario = new HashMap<String, Integer>(scores);
-
-	//pick the first game free
-	for(var entry : new_free.entrySet())
-	    if(entry.getKey().equals(player) || entry.getValue().equals(player)) {
-		new_free.remove(entry.getKey());
-		//update scores
-		scenario.put(entry.getKey(), scenario.get(entry.getKey()) + 3); //split city
-		scenario.put(entry.getValue(), scenario.get(entry.getValue()) + 3); //split city
-		break;
-	    }
+    private String calculate_outcomes(Tournament tournament,
+				      int cut_size,
+				      boolean twofourone) {
+	if(tournament.openTables() == 0)
+	    return calculate_outcomes(tournament, null, cut_size, twofourone);
 
-	var outcomes = new HashMap<String, Integer>();
+	return calculate_outcomes(tournament, run(new Engine(tournament, cut_size, twofourone)),
+				  cut_size, twofourone);
+    }
 
-	//all scenarios are open (nobody is playing perfectly)
-	calculate_recursive(opponents, scenario, new_free, num_rounds, cut_size,
-			    outcomes, false);
+    /**
+     * Works out the odds with an engine, reusing them from the result store if they are there
+     * and keeping them there if they are exact.
+     */
+    Tally run(Engine engine) {
+	return run(engine, null);
+    }
 
-	//find ourselves in outcomes if possible
-	if(!outcomes.containsKey(player))
-	    return false;
+    /**
+     * Works out the odds with an engine, publishing how far the walk has got if it walks every
+     * outcome, and sharing exact odds with other runs in the same JVM if there is a cache.
+     *
+     * @param progress where to publish, or null
+     */
+    Tally run(Engine engine, Progress progress) {
+	return run(engine, progress, budget == null ? null : System.nanoTime() + budget);
+    }
 
-	var outcome = outcomes.get(player);
+    /**
+     * Works out the odds with an engine, as above, by a deadline.
+     *
+     * @param progress where to publish, or null
+     * @param deadline the System.nanoTime() to aim to be done by, or null for no limit
+     */
+    Tally run(Engine engine, Progress progress, Long deadline) {
+	//only exact tallies are shared, since other runs may be asking for them
+	if(cache != null && samples == 0 && error == null && budget == null)
+	    return cache.get(TallyCache.key(engine.t, engine.cutSize, engine.twoFourOne),
+			     () -> stored(engine, progress, deadline));
 
-	//see if it's 100%
-	var total = 0;
-	for(var entry : outcomes.entrySet())
-	    total += entry.getValue();
+	return stored(engine, progress, deadline);
+    }
 
-	DEBUGF("ID odds for %s: %6.3f%n", player, (outcome / (double)total) *(100*cut_size));
+    /**
+     * Works out the odds with an engine, going through the result store if there is one.
+     */
+    private Tally stored(Engine engine, Progress progress, Long deadline) {
+	if(store == null)
+	    return plan(engine, progress, deadline);
+
+	//the store is only a cache, so if it fails we just work everything out
+	var key = ResultStore.key(engine.t, engine.cutSize, engine.twoFourOne);
+	try {
+	    var tally = store.get(key, engine.t.size());
+	    if(tally != null) {
+		DEBUG(2, "Found these results in the result store");
+		tally.branches = engine.twoFourOne ? 2 : 3;
+		return tally;
+	    }
+	}
+	catch(IOException e) {
+	    DEBUGF(1, "Could not read the result store: %s%n", e.getMessage());
+	}
 
-	return outcome * cut_size == total;
+	var tally = plan(engine, progress, deadline);
+	try {
+	    store.put(key, tally);
+	}
+	catch(IOException e) {
+	    DEBUGF(1, "Could not write to the result store: %s%n", e.getMessage());
+	}
+
+	return tally;
     }
 
-    private String calculate_outcomes(HashMap<String, TreeSet<String>> opponents,
-				    HashMap<String, Integer> scores,
-				    HashMap<String, String> free,
-				    int num_rounds, int cut_size,
-				    boolean twofourone) {
-	if(free.size() == 0) {
-	    println(" FIXED RESULT");
-	    println("==============");
-	    /* just calculate SoS and ESoS
-	       for netrunner, SoS is score of opponents / (3 * rounds) */
-	    var standings = new ArrayList<Standing>();
-	    for(var entry : scores.entrySet()) {
-		standings.add(new Standing(entry.getKey(), entry.getValue()));
-	    }
+    /**
+     * Works out the odds with an engine. Unless an error was allowed, every outcome is walked,
+     * and the odds are exact (or bounds, if the time runs out). If one was, the planner picks
+     * whichever strategy it finds fastest for the accuracy and time asked for.
+     *
+     * @param deadline the System.nanoTime() to aim to be done by, or null for no limit
+     */
+    private Tally plan(Engine engine, Progress progress, Long deadline) {
+	engine.classify(0);
+	DEBUGF(2, "%d players: %d clinched, %d contending for %d seats%n",
+	       engine.t.size(), engine.clinchedCount, engine.contenderCount,
+	       Math.min(engine.cutSize, engine.t.size()) - engine.clinchedCount);
+	DEBUGF(2, "%d of %d open tables can move the cut line%n",
+	       engine.relevantTables(0), engine.t.openTables());
+
+	//a fixed number of samples leaves nothing to plan
+	if(samples > 0)
+	    return sample(engine, error, left(deadline));
+
+	//too many outcomes to count, let alone walk: sample them, for as long as is allowed
+	if(!engine.countable()) {
+	    DEBUGF(1, "%d open tables are too many to count every outcome, so sampling%n",
+		   engine.t.openTables());
+	    return sample(engine, error == null ? UNCOUNTABLE_ERROR : error, left(deadline));
+	}
 
-	    for(var standing : standings)
-		standing.makeSOS(scores, opponents, num_rounds);
+	//set up before planning, so that the probe walks the way the walk will
+	if(memo > 0)
+	    engine.memo = new Transpositions(memo * 1024L * 1024L);
+
+	//without an error allowed, the odds must be exact: only the walk gives exact odds or bounds
+	if(error == null)
+	    return walk(engine, progress, left(deadline));
+
+	var planner = new Planner(engine, threads);
+	var options = planner.options(error);
+	//the time spent planning comes out of the time allowed
+	var plan = planner.choose(options, error, left(deadline));
+
+	DEBUG(2, "PLAN:");
+	for(var option : options)
+	    DEBUGF(2, "  %s%n", option);
+	DEBUGF(2, "Chose %s, expecting odds within %.3f%% in %.3fs%n",
+	       plan.strategy.description, plan.error * 100, plan.seconds);
+
+	if(plan.strategy == Planner.Strategy.SAMPLED) {
+	    //sampling to an error stops as soon as it gets there, otherwise use the time allowed
+	    return plan.error <= error
+		? sample(engine, error, null)
+		: draw(engine, plan.samples);
+	}
 
-	    for(var standing : standings)
-		standing.makeESOS(opponents, standings, num_rounds);
+	if(planner.finished != null)
+	    return planner.finished;
 
-	    Collections.sort(standings);
+	return walk(engine, progress, left(deadline));
+    }
 
-	    int index = 1;
-	    for(var standing : standings)
-		printf("%2d: %s%n", index++, standing);
+    /**
+     * Gets the time left before a deadline, in nanoseconds.
+     *
+     * @return the time left (0 once it has passed), or null if there is no deadline
+     */
+    private static Long left(Long deadline) {
+	return deadline == null ? null : Math.max(0L, deadline - System.nanoTime());
+    }
 
-	    index = 1;
+    /**
+     * Walks every outcome with an engine, publishing how far it has got.
+     *
+     * @param budget how long the walk may take in nanoseconds, or null for as long as it takes -
+     *               if the time runs out, the odds left unexplored are given as bounds
+     */
+    private Tally walk(Engine engine, Progress progress, Long budget) {
+	if(budget != null)
+	    engine.stopAfter(budget);
+	engine.progress = progress;
+
+	var tally = enumerate(engine);
+	if(engine.memo != null)
+	    DEBUGF(2, "Memo: %d hits, %d misses, %d evicted%n", engine.memo.hits.sum(),
+		   engine.memo.misses.sum(), engine.memo.evictions.sum());
+	return tally;
+    }
 
-	    println();
+    /**
+     * Enumerates every outcome with an engine, in parallel if more than one thread was asked for.
+     */
+    private Tally enumerate(Engine engine) {
+	if(threads <= 1)
+	    return engine.run();
 
-	    for(var standing : standings)
-		if(index > cut_size)
+
+	int depth = splitDepth > 0 ? splitDepth : engine.splitDepth(threads);
+	DEBUGF(2, "Enumerating on %d threads, split at depth %d%n", threads, depth);
+	return engine.run(pool(), depth);
+    }
+
+    /**
+     * Draws outcomes at random with an engine: either a fixed number of them or, if an error
+     * was asked for, doubling the samples until every interval is narrow enough (and stopping
+     * at the fixed number, if there is one, or when the time allowed runs out).
+     *
+     * @param error the widest half-interval wanted, or null to draw the fixed number
+     * @param budget how long sampling may take in nanoseconds, or null for as long as it takes
+     */
+    private Tally sample(Engine engine, Double error, Long budget) {
+	if(error == null)
+	    return draw(engine, samples);
+
+	long start = System.nanoTime();
+	var tally = draw(engine, SAMPLE_BATCH);
+	while(widest(engine.t, tally) > error && (samples == 0 || tally.leaves < samples)) {
+	    long more = samples == 0 ? tally.leaves : Math.min(tally.leaves, samples - tally.leaves);
+	    if(budget != null) {
+		//no more than the samples so far say there is time left for
+		long spent = Math.max(1L, System.nanoTime() - start);
+		more = Math.min(more, (long)((double)(budget - spent) / spent * tally.leaves));
+		if(more <= 0)
 		    break;
-		else
-		    printf("%2dst seed: %s%n", index++, standing.name);
+	    }
 
-	    return null;
+	    tally.merge(draw(engine, more));
 	}
-	else {
-	    //we become a first year cs student: do all posibilities,
-	    //how do we do this, and what results do we get?
-	    //we want a set of name -> number of times made the cut
-	    StringBuilder res = new StringBuilder();
 
-	    var outcomes = new HashMap<String, Integer>();
+	DEBUGF(2, "Drew %d samples, each figure within %.3f%%%n",
+	       tally.leaves, widest(engine.t, tally) * 100);
+	return tally;
+    }
+
+    /**
+     * Estimates the odds of a single player making the cut by importance sampling.
+     * <p>
+     * The results at each table are first tilted towards the outcomes where the player makes
+     * it, and each sample is then weighted by how much less likely it really is. For a long
+     * shot this gives a far tighter interval than the same number of uniform samples.
+     */
+    private void focus(String player, Tournament tournament, int cut_size) {
+	var id = tournament.ids.get(player);
+	if(id == null) {
+	    printf("There is no player named %s%n", player);
+	    return;
+	}
 
-	    calculate_recursive(opponents, scores, free, num_rounds, cut_size,
-				outcomes, twofourone);
+	var engine = new Engine(tournament, cut_size, false);
+	engine.classify(0);
+	if(engine.status[id] != Engine.CONTENDER) {
+	    printf("%s makes the top cut in %s outcome%n", player,
+		   engine.status[id] == Engine.CLINCHED ? "every" : "no");
+	    return;
+	}
 
-	    int total = 0;
-	    for(var entry : outcomes.entrySet())
-		if(entry.getKey() != "(Bye)")
-		    total += entry.getValue();
+	var tilt = engine.tilt(id, split());
+	long count = samples > 0 ? samples : FOCUS_SAMPLES;
 
-	    ArrayList<Odd> odds = new ArrayList<Odd>();
+	Estimate estimate;
+	if(threads <= 1)
+	    estimate = engine.focus(id, tilt, count, split());
+	else
+	    estimate = engine.focus(pool(), id, tilt, count, split());
+
+	//the weighted mean can stray just outside of [0, 1]
+	double odds = Math.min(1d, Math.max(0d, estimate.mean()));
+	double half = estimate.halfInterval();
+	printf("IMPORTANCE SAMPLED ODDS FOR TOP %d CUT (%d samples, 95%% interval):%n",
+	       cut_size, estimate.samples);
+	printf("%-20s %9.5f%% (%9.5f%% - %9.5f%%)%n", player, odds * 100,
+	       Math.max(0d, odds - half) * 100, Math.min(1d, odds + half) * 100);
+
+	//how many uniform samples would give an interval this tight?
+	//(a sure thing or a lost cause needs no samples at all, so there's nothing to compare)
+	double variance = odds * (1 - odds);
+	if(half > 0d && variance > 0d)
+	    printf("(uniform sampling would need about %.0f samples for the same interval)%n",
+		   variance * Math.pow(Tally.Z / half, 2));
+    }
 
-	    for(var entry : outcomes.entrySet())
-		odds.add(new Odd(entry.getKey(), entry.getValue(), total, cut_size));
+    /**
+     * Gets the pool parallel work is run on, creating it the first time it is needed.
+     */
+    private synchronized ForkJoinPool pool() {
+	if(pool == null)
+	    pool = new ForkJoinPool(threads);
 
-	    Collections.sort(odds);
+	return pool;
+    }
 
-	    if(twofourone)
-		res.append(String.format("ODDS FOR TOP %d CUT (241's enforced):%n", cut_size));
-	    else
-		res.append(String.format("ODDS FOR TOP %d CUT (all outcomes):%n", cut_size));
-	    for(var odd : odds)
-		res.append(odd + "\n");
+    /**
+     * Splits a random number generator off for a piece of work. Work run at the same time (as
+     * when serving) takes turns to split.
+     */
+    private synchronized SplittableRandom split() {
+	if(random == null)
+	    random = new SplittableRandom();
 
-	    return res.toString();
-	}
+	return random.split();
     }
 
-    private class Odd implements Comparable<Odd>{
-	String name;
-	int count;
-	Double pct;
+    private Tally draw(Engine engine, long count) {
+	if(threads <= 1)
+	    return engine.sample(count, split());
 
-	public Odd(String name, int count, int total, int cut_size) {
-	    this.name = name;
-	    this.count = count;
-	    pct = (count / (double)total) * 100 * cut_size;
-	}
+	return engine.sample(pool(), count, split());
+    }
 
-	public String toString() {
-	    return String.format("%-20s %7.3f%%", name, pct);
-	}
+    /**
+     * Finds the widest half-interval of any cut odds or sweep/split/fold odds in a sampled tally.
+     */
+    private double widest(Tournament tournament, Tally tally) {
+	double widest = widestOwn(tournament, tally);
+	for(int player = 0; player < tournament.size(); player++)
+	    widest = Math.max(widest, halfInterval(tally.cut[player], tally.leaves));
 
-	public int compareTo(Odd odd) {
-	    return odd.pct.compareTo(pct);
+	return widest;
+    }
+
+    /**
+     * Finds the widest half-interval of any sweep/split/fold odds in a sampled tally.
+     */
+    private double widestOwn(Tournament tournament, Tally tally) {
+	double widest = 0d;
+	for(int player = 0; player < tournament.size(); player++) {
+	    int table = tournament.tableOf(player);
+	    if(table < 0)
+		continue;
+
+	    for(int result = Engine.LEFT_SWEEP; result <= Engine.RIGHT_SWEEP; result++)
+		if(tally.outcomes(table, result) > 0)
+		    widest = Math.max(widest, halfInterval(tally.own(player, result),
+							  tally.outcomes(table, result)));
 	}
+
+	return widest;
     }
 
-    private void calculate_recursive(HashMap<String, TreeSet<String>> opponents, //const
-				     HashMap<String, Integer> scores, //we will modify/clone this
-				     HashMap<String, String> free, //we will modify/clone this
-				     int num_rounds, int cut_size,
-				     HashMap<String, Integer> outcomes,
-				     boolean twofourone) {
-	if(free.size() == 0) {
+    private double halfInterval(long hits, long trials) {
+	var interval = Tally.interval(hits, trials);
+	return (interval[1] - interval[0]) / 2;
+    }
+
+    private String calculate_outcomes(Tournament tournament,
+				      Tally tally,
+				      int cut_size,
+				      boolean twofourone) {
+	if(tournament.openTables() == 0) {
+	    println(" FIXED RESULT");
+	    println("==============");
 	    /* just calculate SoS and ESoS
 	       for netrunner, SoS is score of opponents / (3 * rounds) */
-	    var standings = new ArrayList<Standing>();
-	    for(var entry : scores.entrySet()) {
-		standings.add(new Standing(entry.getKey(), entry.getValue()));
-	    }
-
-	    for(var standing : standings)
-		standing.makeSOS(scores, opponents, num_rounds);
+	    var engine = new Engine(tournament, cut_size, false);
+	    engine.rank();
 
-	    for(var standing : standings)
-		standing.makeESOS(opponents, standings, num_rounds);
+	    int index = 1;
+	    for(var player : engine.order)
+		printf("%2d: %s%n", index++, standing(engine, player));
 
-	    Collections.sort(standings);
+	    index = 1;
 
-	    int index = 1;
+	    println();
 
-	    /* record all outcomes */
-	    for(var standing : standings)
-		if(index++ > cut_size)
+	    for(var player : engine.order)
+		if(index > cut_size)
 		    break;
 		else
-		    outcome(outcomes, standing.name);
+		    printf("%2dst seed: %s%n", index++, tournament.names[player]);
+
+	    return null;
 	}
 	else {
-	    var new_free = new HashMap<String, String>(free);
-
-	    //pick the first game free
-	    var first_entry = new_free.entrySet().iterator().next();
-	    new_free.remove(first_entry.getKey());
-
-	    //run three scenarios: split, sweep (left), sweep (right)
-
-	    var s1 = new HashMap<String, Integer>(scores);
-	    var s3 = new HashMap<String, Integer>(scores);
-
-	    var left_player = first_entry.getKey();
-	    var right_player = first_entry.getValue();
+	    StringBuilder res = new StringBuilder();
+	    var odds = odds(tournament, tally, cut_size);
+
+	    var sampled = tally.sampled()
+		? String.format(", %d samples, 95%% intervals", tally.leaves)
+		: "";
+	    if(!tally.exact())
+		sampled = String.format(", out of time with %.3f%% explored, bounds",
+					100 - tally.unexplored * 100d / tally.leaves);
+	    if(twofourone)
+		res.append(String.format("ODDS FOR TOP %d CUT (241's enforced%s):%n", cut_size, sampled));
+	    else
+		res.append(String.format("ODDS FOR TOP %d CUT (all outcomes%s):%n", cut_size, sampled));
+	    for(var odd : odds)
+		res.append(odd + "\n");
 
-	    s1.put(left_player, s1.get(left_player) + 6); //sweep
-	    s3.put(right_player, s3.get(right_player) + 6); //sweep
+	    return res.toString();
+	}
+    }
 
-	    /* run all 3 simulations */
-	    calculate_recursive(opponents, s1, new_free, num_rounds, cut_size,
-				outcomes, twofourone);
-	    calculate_recursive(opponents, s3, new_free, num_rounds, cut_size,
-				outcomes, twofourone);
+    /**
+     * Works out everyone's odds of making the cut from a tally, best first.
+     */
+    ArrayList<Odd> odds(Tournament tournament, Tally tally, int cut_size) {
+	//we become a first year cs student: do all posibilities,
+	//how do we do this, and what results do we get?
+	//we want a set of name -> number of times made the cut
+	var outcomes = new HashMap<String, Long>();
+	for(int player = 0; player < tournament.size(); player++)
+	    if(tally.cut[player] > 0)
+		outcomes.put(tournament.names[player], tally.cut[player]);
+
+	double total = tally.total();
+
+	ArrayList<Odd> odds = new ArrayList<Odd>();
+
+	if(!tally.exact()) {
+	    //stopped early: every leaf hands out the same number of places, explored or not
+	    total = tally.leaves * (double)Math.min(cut_size, tournament.size());
+	    for(int player = 0; player < tournament.size(); player++)
+		if(tally.maybe[player] > 0 && tally.cut[player] == 0)
+		    outcomes.put(tournament.names[player], 0L);
+	}
 
-	    if(!twofourone) {
-		var s2 = new HashMap<String, Integer>(scores);
-		s2.put(left_player, s2.get(left_player) + 3); //split city
-		s2.put(right_player, s2.get(right_player) + 3); //split city
-		calculate_recursive(opponents, s2, new_free, num_rounds, cut_size,
-				    outcomes, twofourone);
+	for(var entry : outcomes.entrySet()) {
+	    var odd = new Odd(entry.getKey(), entry.getValue(), total, cut_size);
+	    if(tally.sampled()) {
+		//the interval is on the share of samples, which scales just like the odds
+		odd.interval = Tally.interval(entry.getValue(), tally.leaves);
+		double scale = 100d * cut_size * tally.leaves / total;
+		odd.interval[0] *= scale;
+		odd.interval[1] *= scale;
 	    }
+	    if(!tally.exact()) {
+		long most = entry.getValue() + tally.maybe[tournament.ids.get(entry.getKey())];
+		odd.upper = (most / total) * 100 * cut_size;
+	    }
+	    odds.add(odd);
 	}
-    }
 
-    private void outcome(HashMap<String, Integer> outcomes, String player) {
-	if(!outcomes.containsKey(player))
-	    outcomes.put(player, 1);
-	else
-	    outcomes.put(player, outcomes.get(player)+1);
+	Collections.sort(odds);
+	return odds;
     }
 
-
-    private class Standing implements Comparable<Standing>{
+    static class Odd implements Comparable<Odd>{
 	String name;
-	Integer score = 0;
-	Double SoS = 0d;
-	Double ESoS = 0d;
+	long count;
+	Double pct;
+	double[] interval = null;
+	Double upper = null;
 
-	public Standing(String name, int score) {
+	public Odd(String name, long count, double total, int cut_size) {
 	    this.name = name;
-	    this.score = score;
+	    this.count = count;
+	    pct = (count / total) * 100 * cut_size;
 	}
 
 	public String toString() {
-	    return String.format("%-20s %3d %06.3f %3.3f", name, score, SoS, ESoS);
-	}
-
-	public void makeSOS(HashMap<String, Integer> scores,
-			    HashMap<String, TreeSet<String>> opps,
-			    int rounds) {
-	    var my_opponents = opps.get(name);
+	    if(upper != null)
+		return String.format("%-20s %7.3f%% - %7.3f%%", name, pct, upper);
 
-	    if(got_bye(my_opponents))
-		rounds--;
+	    if(interval != null)
+		return String.format("%-20s %7.3f%% (%7.3f%% - %7.3f%%)",
+				     name, pct, interval[0], interval[1]);
 
-	    for(var opponent : my_opponents)
-		SoS += scores.get(opponent);
-
-	    SoS /= (double)(rounds * (3));
+	    return String.format("%-20s %7.3f%%", name, pct);
 	}
 
-	public void makeESOS(HashMap<String, TreeSet<String>> opps,
-			     ArrayList<Standing> standings,
-			     int rounds) {
-	    if(got_bye(opps.get(name)))
-		rounds--;
-
-	    for(var stand : standings)
-		if(opps.get(name).contains(stand.name)
-		   && !stand.name.equals("(Bye)"))
-		    ESoS += stand.SoS;
+	public int compareTo(Odd odd) {
+	    var res = odd.pct.compareTo(pct);
+	    if(res != 0) return res;
 
-	    ESoS /= rounds;
-	}
+	    if(upper != null) {
+		res = odd.upper.compareTo(upper);
+		if(res != 0) return res;
+	    }
 
-	private boolean got_bye(TreeSet<String> opponents) {
-	    return opponents.contains("(Bye)");
+	    //ties are listed by name, rather than in whatever order the engine saw them
+	    return name.compareTo(odd.name);
 	}
+    }
 
-	public int compareTo(Standing s) {
-	    var res = s.score.compareTo(score);
-	    if(res != 0) return res;
-
-	    res = s.SoS.compareTo(SoS);
-	    if(res != 0) return res;
-
-	    res = s.ESoS.compareTo(ESoS);
-	    if(res != 0) return res;
+    private String standing(Engine engine, int player) {
+	return String.format("%-20s %3d %06.3f %3.3f", engine.t.names[player],
+			     engine.score[player], engine.sos(player), engine.esos(player));
+    }
 
-	    res = name.compareTo(s.name);
-	    return res;
-	}
+    /**
+     * Reads a duration such as 5s, 500ms or 2m (seconds if there is no unit) as nanoseconds.
+     */
+    private long parse_duration(String duration) {
+	double scale = 1e9;
+	if(duration.endsWith("ms"))
+	    scale = 1e6;
+	else if(duration.endsWith("m"))
+	    scale = 60e9;
+
+	return (long)(Double.parseDouble(duration.replaceAll("[a-z]+$", "")) * scale);
     }
 
     private void free(HashMap<String, String> free, String left, String right) {
@@ -661,16 +1131,16 @@ public class Outcomes extends Drafter {
 
 	return new Command[] {new FileCommand("Pairings",
 					      "The list of all pairings for this tournament",
-					      true,
+					      false,
 					      "-p", "--pairings"),
 
-			      new IntCommand(1, 10, true, 1, "-r", "--round-count")
+			      new IntCommand(1, 10, false, 1, "-r", "--round-count")
 			      .setName("Rounds")
-			      .setDescription("Number of rounds for this tournament"),
+			      .setDescription("Number of rounds for this tournament (when serving, the default for requests)"),
 
-			      new IntCommand(1, 10, true, 1, "-cs", "--cut-size")
+			      new IntCommand(1, 10, false, 1, "-cs", "--cut-size")
 			      .setName("Cut Size")
-			      .setDescription("Number of players in the top cut"),
+			      .setDescription("Number of players in the top cut (when serving, the default for requests)"),
 
 			      new StringCommand("Inspect Player",
 						"Examines the exact (free) scenarios in which a given player can make it into the cut",
@@ -686,7 +1156,88 @@ public class Outcomes extends Drafter {
 						"Shows the opponents/pairings for a player",
 						null,
 						false,
-						"-sp", "--show-opponents", "--pairings")
+						"-sp", "--show-opponents", "--pairings"),
+
+			      new IntCommand(1, 1024, false, 1, "-t", "--threads")
+			      .setName("Threads")
+			      .setDescription("Number of threads to enumerate outcomes with"),
+
+			      new IntCommand(0, 40, false, 0, "--split-depth")
+			      .setName("Split Depth")
+			      .setDescription("Number of open tables to split into parallel tasks (0 picks a depth based on the number of threads)"),
+
+			      new IntCommand(0, Integer.MAX_VALUE, false, 0, "--samples")
+			      .setName("Samples")
+			      .setDescription("Estimate the odds from this many random outcomes, rather than enumerating all of them (0 enumerates)"),
+
+			      new RegexCommand(null, false, "[0-9]*\\.?[0-9]+%?", "--error")
+			      .setName("Error")
+			      .setDescription("Allow the odds to be estimated from random outcomes, until every figure is within this much either way (eg 0.1%), 19 times in 20"),
+
+			      new StringCommand("Focus",
+						"Estimates the odds of a single (long shot) player making the cut by importance sampling, instead of the usual tables",
+						null,
+						false,
+						"--focus"),
+
+			      new RegexCommand(null, false, "[0-9]*\\.?[0-9]+(ms|s|m)?", "--time-budget")
+			      .setName("Time Budget")
+			      .setDescription("Aim to finish in this long (eg 5s, 500ms, 2m), sampling if enumerating looks slower, and give bounds on the odds if enumerating runs over"),
+
+			      new IntCommand(0, 1 << 20, false, 64, "--memo")
+			      .setName("Memo")
+			      .setDescription("Megabytes per thread for remembering subtrees that can be reached more than one way (0 turns it off)"),
+
+			      new StringCommand("Store",
+						"Keep exact results in this file, and reuse them when the same tournament is asked about again",
+						null,
+						false,
+						"--store"),
+
+			      new IntCommand(1, 1024, false, 16, "--store-size")
+			      .setName("Store Size")
+			      .setDescription("Size of a new result store in megabytes - the oldest results are dropped to stay under it"),
+
+			      new BooleanCommand("Watch",
+						 "Keep running, and print the odds again whenever the pairings file changes",
+						 false,
+						 "--watch"),
+
+			      new IntCommand(0, 65535, false, 0, "--serve")
+			      .setName("Serve")
+			      .setDescription("Serve the odds as JSON over HTTP on this port, for the web page to ask for (0 doesn't serve)"),
+
+			      new IntCommand(0, 1 << 16, false, 64, "--cache-size")
+			      .setName("Cache Size")
+			      .setDescription("Number of tallies the server keeps for answering the same question again (0 keeps none)"),
+
+			      new RegexCommand(null, false, "[0-9]*\\.?[0-9]+(ms|s|m)?", "--cache-ttl")
+			      .setName("Cache TTL")
+			      .setDescription("How long the server keeps each tally for (eg 30s, 5m - default 60s)"),
+
+			      new StringCommand("Cobra",
+						"Read the pairings from cobr.ai instead of a file: a tournament id, or the address or path of a tournament's JSON",
+						null,
+						false,
+						"--cobra"),
+
+			      new StringCommand("Host",
+						"The address to serve on - the default only answers this machine",
+						"127.0.0.1",
+						false,
+						"--host"),
+
+			      new StringCommand("Origin",
+						"The origin of the web page allowed to read what is served, or * for any page",
+						"https://nbkelly.github.io",
+						false,
+						"--origin"),
+
+			      new StringCommand("Cobra Cache",
+						"Where to keep what is fetched from cobr.ai between runs (default: anr-cut-check under $XDG_CACHE_HOME, or ~/.cache)",
+						null,
+						false,
+						"--cobra-cache")
 	};
     }
 
@@ -695,15 +1246,155 @@ public class Outcomes extends Drafter {
 	//do whatever you want based on the commands you have given
 	//at this stage, they should all be resolved
 
-	pairings = readFileLines(((FileCommand)userCommands[0]).getValue());
-	roundCount = ((IntCommand)userCommands[1]).getValue();
-	cutSize = ((IntCommand)userCommands[2]).getValue();
+	pairingsFile = ((FileCommand)userCommands[0]).getValue();
+	if(pairingsFile != null)
+	    pairings = readFileLines(pairingsFile);
+	//when serving, requests can give their own
+	roundCount = userCommands[1].matched() ? ((IntCommand)userCommands[1]).getValue() : null;
+	cutSize = userCommands[2].matched() ? ((IntCommand)userCommands[2]).getValue() : null;
 	inspectPlayer = ((StringCommand)userCommands[3]).getValue();
 	scenarioMax = ((IntCommand)userCommands[4]).getValue();
 	showOpponents = ((StringCommand)userCommands[5]).getValue();
+	threads = ((IntCommand)userCommands[6]).getValue();
+	splitDepth = ((IntCommand)userCommands[7]).getValue();
+	samples = ((IntCommand)userCommands[8]).getValue();
+
+	var err = ((RegexCommand)userCommands[9]).getValue();
+	if(err != null) {
+	    error = err.endsWith("%")
+		? Double.parseDouble(err.substring(0, err.length() - 1)) / 100
+		: Double.parseDouble(err);
+	    error = Math.max(error, MIN_ERROR);
+	}
+
+	focus = ((StringCommand)userCommands[10]).getValue();
+
+	var time = ((RegexCommand)userCommands[11]).getValue();
+	if(time != null)
+	    budget = parse_duration(time);
+
+	memo = ((IntCommand)userCommands[12]).getValue();
+
+	var path = ((StringCommand)userCommands[13]).getValue();
+	if(path != null) {
+	    long bytes = ((IntCommand)userCommands[14]).getValue() * 1024L * 1024L;
+	    try {
+		store = open_store(Path.of(path), bytes);
+	    }
+	    catch(IOException e) {
+		ERR("Can't open the result store: " + e.getMessage());
+		return 1;
+	    }
+
+	    //a store keeps the size it was made with, rather than losing what it holds
+	    if(userCommands[14].matched() && store.size != bytes) {
+		ERR(String.format("%s is a %dMB result store - remove it to make a %dMB one",
+				  path, store.size / 1024 / 1024, bytes / 1024 / 1024));
+		if(stores == null)
+		    store.close();
+		store = null;
+		return 1;
+	    }
+	}
+
+	watch = ((BooleanCommand)userCommands[15]).getValue();
+	serve = ((IntCommand)userCommands[16]).getValue();
+	cacheSize = ((IntCommand)userCommands[17]).getValue();
+
+	var ttl = ((RegexCommand)userCommands[18]).getValue();
+	if(ttl != null)
+	    cacheTtl = parse_duration(ttl);
+
+	host = ((StringCommand)userCommands[20]).getValue();
+	origin = ((StringCommand)userCommands[21]).getValue();
+
+	var source = ((StringCommand)userCommands[19]).getValue();
+	if(source != null) {
+	    try {
+		var cache = ((StringCommand)userCommands[22]).getValue();
+		cobra = Cobra.of(source, cache == null ? Cobra.cache() : Path.of(cache));
+	    }
+	    catch(IllegalArgumentException e) {
+		ERR(String.format("Can't read a tournament from %s: %s", source, e.getMessage()));
+		return 1;
+	    }
+	}
+	else if(pairingsFile == null && serve == 0) {
+	    ERR("Either the pairings (-p) or a tournament on cobr.ai (--cobra) must be given");
+	    return 1;
+	}
+
+	if(serve == 0 && (roundCount == null || cutSize == null)) {
+	    ERR("The round count (-r) and cut size (-cs) must be given");
+	    return 1;
+	}
 	return 0;
     }
 
+    /**
+     * Opens a result store, or gets the one already open at the same path if stores are shared.
+     *
+     * @param path the file the store is kept in
+     * @param bytes the size of the file, if it is created
+     * @return the store
+     * @throws IOException if the store can't be opened
+     */
+    private ResultStore open_store(Path path, long bytes) throws IOException {
+	if(stores == null)
+	    return new ResultStore(path, bytes);
+
+	path = path.toAbsolutePath().normalize();
+	synchronized(stores) {
+	    var store = stores.get(path);
+	    if(store == null) {
+		store = new ResultStore(path, bytes);
+		stores.put(path, store);
+	    }
+
+	    return store;
+	}
+    }
+
+    /**
+     * Thrown instead of exiting when running for the daemon. It is an error rather than an
+     * exception so that it passes through Drafter's handlers on its way out.
+     */
+    static class Exit extends Error {
+	private static final long serialVersionUID = 1L;
+
+	final int code;
+
+	Exit(int code) {
+	    super("exit " + code);
+	    this.code = code;
+	}
+    }
+
+    /**
+     * Runs a command for the daemon: the same as running it from the command line, except that
+     * failing returns the exit code rather than exiting the JVM.
+     *
+     * @param argv the argument vector
+     * @return the exit code
+     */
+    int request(String[] argv) {
+	daemon = true;
+	try {
+	    run(argv);
+	    return 0;
+	}
+	catch(Exit e) {
+	    return e.code;
+	}
+    }
+
+    @Override protected void FAIL(int exit) {
+	if(daemon)
+	    throw new Exit(exit);
+
+	super.FAIL(exit);
+    }
+
     /**
      * Creates and runs an instance of your class - do not modify
      */
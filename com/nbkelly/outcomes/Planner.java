@@ -0,0 +1,203 @@
+package com.nbkelly.outcomes;
+
+/* imports */
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+
+/**
+ * Picks how to work out the odds for a tournament, when an error has been allowed. Without
+ * one, only the exhaustive walk gives the odds asked for, so there is nothing to pick.
+ * <p>
+ * Every available strategy is costed before anything is run: the exhaustive walk by walking
+ * it for a moment and seeing how much of the tree that covered, and sampling by drawing a few
+ * samples and seeing how long they took. The planner then picks the fastest strategy that
+ * meets the accuracy asked for inside the time allowed, or failing that, the most accurate
+ * one that fits in the time.
+ */
+class Planner {
+    /** how long the exhaustive walk is probed for */
+    static final long PROBE = 20_000_000L;
+    /** how many samples are drawn to time sampling */
+    static final int PROBE_SAMPLES = 2000;
+    /** the interval sampling is costed at, if no error was asked for */
+    static final double DEFAULT_ERROR = 0.001;
+
+    /** the ways the odds can be worked out */
+    enum Strategy {
+	EXACT("exhaustive walk"),
+	SAMPLED("uniform sampling");
+
+	final String description;
+
+	Strategy(String description) {
+	    this.description = description;
+	}
+    }
+
+    /**
+     * A costed way of working out the odds.
+     */
+    static class Option {
+	final Strategy strategy;
+	/** estimated wall clock time */
+	final double seconds;
+	/** the widest half-interval the odds will have (0 if exact) */
+	final double error;
+	/** estimated memory used, over every thread */
+	final long memory;
+	/** number of samples to draw, if sampling */
+	final long samples;
+	/** how the estimate was reached */
+	final String detail;
+
+	Option(Strategy strategy, double seconds, double error, long memory, long samples,
+	       String detail) {
+	    this.strategy = strategy;
+	    this.seconds = seconds;
+	    this.error = error;
+	    this.memory = memory;
+	    this.samples = samples;
+	    this.detail = detail;
+	}
+
+	@Override public String toString() {
+	    return String.format("%-16s ~%9.3fs %8dKB  %s", strategy.description, seconds,
+				 memory / 1024, detail);
+	}
+    }
+
+    final Engine engine;
+    final int threads;
+    /** the tally of the probe, if the probe walked every outcome */
+    Tally finished = null;
+
+    /**
+     * Creates a planner for an engine.
+     *
+     * @param engine the engine to plan for (it is copied, never run)
+     * @param threads the number of threads the strategies can use
+     */
+    Planner(Engine engine, int threads) {
+	this.engine = engine;
+	this.threads = threads;
+    }
+
+    /**
+     * Costs every strategy.
+     *
+     * @param error the widest half-interval wanted, or null for exact odds
+     * @return the costed strategies
+     */
+    ArrayList<Option> options(Double error) {
+	var options = new ArrayList<Option>();
+	int n = engine.t.size();
+	int tables = engine.t.openTables();
+	int branches = engine.twoFourOne ? 2 : 3;
+
+	//every engine keeps a handful of per-player arrays, and a contender list per table
+	long perEngine = 120L * n + 4L * n * tables;
+
+	//walk the tree for a moment, and see how much of it that covered - twice, since the first
+	//walk runs before the JIT has compiled it, and would cost the walk several times too high
+	Tally tally = null;
+	double elapsed = 0;
+	for(int i = 0; i < 2 && (tally == null || !tally.exact()); i++) {
+	    var probe = new Engine(engine);
+	    probe.stopAfter(PROBE);
+	    long start = System.nanoTime();
+	    tally = probe.run();
+	    elapsed = (System.nanoTime() - start) / 1e9;
+	}
+
+	int relevant = engine.relevantTables(0);
+	double explored = 1 - tally.unexplored / (double)tally.leaves;
+	double perLeaf = elapsed / Math.max(1d, Math.pow(branches, relevant) * explored);
+	if(tally.exact()) {
+	    finished = tally;
+	    options.add(new Option(Strategy.EXACT, elapsed, 0d, perEngine, 0,
+				   String.format("finished while probing (%d^%d leaves at most)",
+						 branches, relevant)));
+
+	    //nothing will beat an answer we already have
+	    return options;
+	}
+	else {
+	    double seconds = explored > 0
+		? elapsed / explored / threads
+		: Math.pow(branches, relevant) * perLeaf / threads;
+	    options.add(new Option(Strategy.EXACT, seconds, 0d, perEngine * threads, 0,
+				   String.format("%.4f%% of %d^%d leaves in %.3fs, %d contenders of %d",
+						 explored * 100, branches, relevant, elapsed,
+						 engine.contenderCount, n)));
+	}
+
+	//draw a few samples, and see how long they took
+	long start = System.nanoTime();
+	new Engine(engine).sample(PROBE_SAMPLES, new SplittableRandom());
+	double perSample = (System.nanoTime() - start) / 1e9 / PROBE_SAMPLES;
+
+	double target = error == null ? DEFAULT_ERROR : error;
+	long samples = samplesFor(target);
+	options.add(new Option(Strategy.SAMPLED, samples * perSample / threads, target,
+			       (perEngine + 24L * n + 24L * tables) * threads, samples,
+			       String.format("%d samples for +/-%.3f%% at %.1fus each",
+					     samples, target * 100, perSample * 1e6)));
+
+	return options;
+    }
+
+    /**
+     * Picks the fastest strategy that is accurate enough and fast enough. If there isn't one,
+     * the most accurate strategy that fits in the time is picked, sampling as many outcomes as
+     * the time allows.
+     *
+     * @param options the costed strategies, from options()
+     * @param error the widest half-interval wanted, or null for exact odds
+     * @param budget the time allowed in nanoseconds, or null for no limit
+     * @return the chosen strategy
+     */
+    Option choose(ArrayList<Option> options, Double error, Long budget) {
+	double allowed = budget == null ? Double.POSITIVE_INFINITY : budget / 1e9;
+	double wanted = error == null ? 0d : error;
+
+	Option best = null;
+	for(var option : options)
+	    if(option.error <= wanted && option.seconds <= allowed
+	       && (best == null || option.seconds < best.seconds))
+		best = option;
+
+	if(best != null)
+	    return best;
+
+	//nothing is good enough in time: sample for as long as we are allowed
+	Option exact = null, sampled = null;
+	for(var option : options)
+	    if(option.strategy == Strategy.SAMPLED)
+		sampled = option;
+	    else if(option.strategy == Strategy.EXACT)
+		exact = option;
+
+	if(budget == null || sampled == null)
+	    return exact;
+
+	double perSample = sampled.seconds * threads / sampled.samples;
+	long samples = Math.max(1, (long)(allowed * threads / perSample));
+	return new Option(Strategy.SAMPLED, allowed, halfInterval(samples), sampled.memory, samples,
+			  String.format("%d samples in the time allowed", samples));
+    }
+
+    /**
+     * Gets the number of samples needed for any odds to be within an error, 19 times in 20.
+     */
+    static long samplesFor(double error) {
+	//the interval is widest for odds of a half
+	return (long)Math.ceil(Math.pow(Tally.Z * 0.5 / error, 2));
+    }
+
+    /**
+     * Gets the widest half-interval of any odds estimated from a number of samples.
+     */
+    static double halfInterval(long samples) {
+	return Tally.Z * 0.5 / Math.sqrt(samples);
+    }
+}
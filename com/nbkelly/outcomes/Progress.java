@@ -0,0 +1,187 @@
+package com.nbkelly.outcomes;
+
+/* imports */
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * How far an exhaustive walk has got, for showing the odds while it is still going.
+ * <p>
+ * Each part of the walk (the whole walk, or each task of a parallel walk) publishes a copy of
+ * its tally every so often, into a slot of its own. A copy is never changed once published, so
+ * readers sum whatever copies are there without waiting on the walk, and the walk only ever
+ * replaces a reference - it never waits on readers, however slow.
+ * <p>
+ * The outcomes counted so far aren't a fair sample of the rest, since the walk goes through
+ * them in order, so the running odds come with bounds: no lower than if a player made the cut
+ * in none of the outcomes left, and no higher than if they made it in all of them. (The walk
+ * credits a player who is sure of their place below a node before it counts the outcomes
+ * below it, so the running odds are kept inside the bounds.)
+ */
+class Progress {
+    /** the odds as of some point in the walk */
+    static class Snapshot {
+	/** outcomes counted so far, and in all */
+	final long done;
+	final long total;
+	/** whether the walk has finished, and these are the final odds */
+	final boolean finished;
+	/** System.nanoTime() when the snapshot was taken */
+	final long time;
+
+	private final long[] cut;
+	private final double scale;
+
+	Snapshot(long done, long total, long[] cut, double scale, boolean finished) {
+	    this.done = done;
+	    this.total = total;
+	    this.cut = cut;
+	    this.scale = scale;
+	    this.finished = finished;
+	    time = System.nanoTime();
+	}
+
+	/**
+	 * Gets the number of players.
+	 */
+	int players() {
+	    return cut.length;
+	}
+
+	/**
+	 * Gets a player's odds of making the cut over the outcomes counted so far.
+	 *
+	 * @param player the id of the player
+	 * @return the odds, as a percentage (0 if nothing has been counted)
+	 */
+	double odds(int player) {
+	    return done == 0 ? 0d : Math.min(cut[player] * scale / done, upper(player));
+	}
+
+	/**
+	 * Gets the lowest a player's odds can be, if they make the cut in none of the outcomes
+	 * left.
+	 */
+	double lower(int player) {
+	    return cut[player] * scale / total;
+	}
+
+	/**
+	 * Gets the highest a player's odds can be, if they make the cut in every outcome left.
+	 */
+	double upper(int player) {
+	    return Math.min(lower(player) + left(), scale);
+	}
+
+	/**
+	 * Gets the share of the odds still to be handed out, over the outcomes left.
+	 */
+	double left() {
+	    return (total - done) * scale / total;
+	}
+
+	/**
+	 * Has a player made the cut in any of the outcomes counted so far?
+	 */
+	boolean counted(int player) {
+	    return cut[player] > 0;
+	}
+    }
+
+    final Tournament t;
+    final int cutSize;
+    /** how often each part of the walk publishes, and snapshots are taken, in nanoseconds */
+    final long interval;
+
+    private volatile AtomicReferenceArray<Tally> slots = new AtomicReferenceArray<>(0);
+    private volatile long total = 0;
+    private volatile Snapshot latest = null;
+    private volatile Snapshot result = null;
+
+    /**
+     * Creates the progress of a walk that hasn't started.
+     *
+     * @param t the tournament being walked
+     * @param cutSize the number of players in the top cut
+     * @param interval how often to publish, in nanoseconds
+     */
+    Progress(Tournament t, int cutSize, long interval) {
+	this.t = t;
+	this.cutSize = cutSize;
+	this.interval = interval;
+    }
+
+    /**
+     * Starts a walk.
+     *
+     * @param parts the number of parts the walk publishes from
+     * @param total the number of outcomes the walk counts
+     */
+    void start(int parts, long total) {
+	this.total = total;
+	slots = new AtomicReferenceArray<>(parts);
+    }
+
+    /**
+     * Publishes the tally of a part of the walk.
+     *
+     * @param part the part of the walk
+     * @param tally a copy of its tally so far, never to be changed again
+     */
+    void publish(int part, Tally tally) {
+	var slots = this.slots;
+	if(part < slots.length())
+	    slots.set(part, tally);
+    }
+
+    /**
+     * Publishes the tally of the whole walk (or of however else the odds were worked out).
+     *
+     * @param tally the final tally
+     */
+    void finish(Tally tally) {
+	result = new Snapshot(tally.leaves - tally.unexplored, tally.leaves, tally.cut.clone(),
+			      scale(), true);
+    }
+
+    /**
+     * Gets the odds as of the last snapshot, taking a new one if it is older than the interval.
+     *
+     * @return the snapshot, or null if the walk hasn't started
+     */
+    Snapshot snapshot() {
+	if(result != null)
+	    return result;
+
+	var latest = this.latest;
+	if(latest != null && System.nanoTime() - latest.time < interval)
+	    return latest;
+
+	var slots = this.slots;
+	if(total == 0)
+	    return null;
+
+	long done = 0;
+	var cut = new long[t.size()];
+	for(int i = 0; i < slots.length(); i++) {
+	    var tally = slots.get(i);
+	    if(tally == null)
+		continue;
+
+	    done += tally.leaves - tally.unexplored;
+	    for(int p = 0; p < cut.length; p++)
+		cut[p] += tally.cut[p];
+	}
+
+	//readers taking snapshots at once may each replace the other's, which is harmless
+	this.latest = new Snapshot(done, total, cut, scale(), false);
+	return this.latest;
+    }
+
+    /**
+     * Gets what turns a share of the outcomes into odds: each outcome hands out min(cut, n)
+     * places.
+     */
+    private double scale() {
+	return 100d * cutSize / Math.min(cutSize, t.size());
+    }
+}
@@ -0,0 +1,313 @@
+package com.nbkelly.outcomes;
+
+/* imports */
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A memory-mapped file of exact tallies, so that a tournament nothing has changed in since the
+ * last run doesn't have to be walked again.
+ * <p>
+ * Tallies are keyed by a digest of everything the odds depend on: the players in id order,
+ * their scores and opponents, the open tables, the cut size and whether 241s are enforced.
+ * Everything printed - odds, contention, safe-to-ID - is read off the tally, so storing the
+ * tally is storing all of it.
+ * <p>
+ * The file is a fixed size, set when it is created. After a small header comes an index of slots, each pointing at a
+ * record, and then a data area the records are written into one after another, wrapping
+ * around to the start when they reach the end. The oldest records are overwritten first, and a
+ * slot whose record has been overwritten is treated as empty. Positions are counted in bytes
+ * ever written rather than offsets, so whether a record is still there is one comparison.
+ * <p>
+ * Several processes may share a store: reads take a shared lock on the file, and writes an
+ * exclusive one. Within a process, threads take turns.
+ */
+class ResultStore {
+    /** identifies the file, and the layout of its records */
+    static final int MAGIC = 0x414e5243;
+    static final int VERSION = 1;
+
+    /** number of index slots, and how many slots a key may be placed in */
+    static final int SLOTS = 4096;
+    static final int PROBES = 8;
+
+    /* header: magic, version, then the number of bytes ever written */
+    private static final int WRITTEN = 8;
+    private static final int HEADER = 16;
+    /* each slot: the key, the position of the record, and its length */
+    private static final int SLOT = 32;
+    private static final int DATA = HEADER + SLOTS * SLOT;
+
+    private final FileChannel channel;
+    private MappedByteBuffer map;
+    /** size of the file, and of its data area, in bytes */
+    final long size;
+    final long capacity;
+
+    /**
+     * Opens a store, creating it if the file is empty. A store that is already there keeps
+     * the size it was created with, along with everything in it.
+     *
+     * @param path the file to keep the store in
+     * @param bytes the size of the file, if it is created
+     * @throws IOException if the file can't be opened or mapped, or holds something other
+     *                     than a store
+     */
+    ResultStore(Path path, long bytes) throws IOException {
+	channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				   StandardOpenOption.WRITE);
+	try {
+	    var lock = channel.lock();
+	    try {
+		long existing = channel.size();
+		size = existing == 0 ? Math.max(bytes, DATA + 4096) : existing;
+		if(existing != 0 && existing < DATA + 4096)
+		    throw new IOException(path + " is not a result store");
+
+		map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		if(existing != 0 && map.getInt(0) != MAGIC)
+		    throw new IOException(path + " is not a result store");
+
+		//a store from another version can't be read, but it's still ours to start afresh
+		if(existing == 0 || map.getInt(4) != VERSION) {
+		    for(int i = 0; i < DATA; i += 8)
+			map.putLong(i, 0L);
+
+		    map.putInt(0, MAGIC);
+		    map.putInt(4, VERSION);
+		}
+	    }
+	    finally {
+		lock.release();
+	    }
+	}
+	catch(IOException e) {
+	    close();
+	    throw e;
+	}
+
+	capacity = size - DATA;
+    }
+
+    /**
+     * Closes the file, and lets go of the mapping, which is unmapped once nothing else refers
+     * to it.
+     */
+    synchronized void close() throws IOException {
+	map = null;
+	channel.close();
+    }
+
+    /**
+     * Looks up a tally.
+     *
+     * @param key the key of the tally, from key()
+     * @param players the number of players in the tournament
+     * @return the stored tally, or null if there isn't one
+     * @throws IOException if the file can't be locked, or the store is closed
+     */
+    synchronized Tally get(long[] key, int players) throws IOException {
+	if(map == null)
+	    throw new IOException("the result store is closed");
+
+	var lock = channel.lock(0, Long.MAX_VALUE, true);
+	try {
+	    int slot = find(key, map.getLong(WRITTEN));
+	    if(slot < 0)
+		return null;
+
+	    int at = DATA + (int)(map.getLong(slot + 16) % capacity);
+	    if(map.getLong(at) != key[0] || map.getLong(at + 8) != key[1]
+	       || map.getInt(at + 16) != players)
+		return null;
+
+	    var tally = new Tally(players);
+	    tally.leaves = map.getLong(at + 24);
+	    at += 32;
+	    for(int i = 0; i < players; i++, at += 8)
+		tally.cut[i] = map.getLong(at);
+	    for(int i = 0; i < players * 3; i++, at += 8)
+		tally.own[i] = map.getLong(at);
+
+	    return tally;
+	}
+	finally {
+	    lock.release();
+	}
+    }
+
+    /**
+     * Stores an exact tally, overwriting the oldest records to make room.
+     *
+     * @param key the key of the tally, from key()
+     * @param tally the tally to store (ignored unless it is exact and exhaustive)
+     * @throws IOException if the file can't be locked, or the store is closed
+     */
+    synchronized void put(long[] key, Tally tally) throws IOException {
+	if(map == null)
+	    throw new IOException("the result store is closed");
+
+	if(!tally.exact() || tally.sampled())
+	    return;
+
+	int players = tally.cut.length;
+	long length = 32 + 32L * players;
+	if(length > capacity)
+	    return;
+
+	var lock = channel.lock();
+	try {
+	    //records never wrap, so skip to the start of the data area if this won't fit
+	    long position = map.getLong(WRITTEN);
+	    if(position % capacity + length > capacity)
+		position += capacity - position % capacity;
+
+	    int slot = find(key, position + length);
+	    if(slot < 0)
+		slot = victim(key, position + length);
+	    int at = DATA + (int)(position % capacity);
+	    map.putLong(at, key[0]);
+	    map.putLong(at + 8, key[1]);
+	    map.putInt(at + 16, players);
+	    map.putLong(at + 24, tally.leaves);
+	    at += 32;
+	    for(int i = 0; i < players; i++, at += 8)
+		map.putLong(at, tally.cut[i]);
+	    for(int i = 0; i < players * 3; i++, at += 8)
+		map.putLong(at, tally.own[i]);
+
+	    map.putLong(slot, key[0]);
+	    map.putLong(slot + 8, key[1]);
+	    map.putLong(slot + 16, position);
+	    map.putLong(slot + 24, length);
+	    map.putLong(WRITTEN, position + length);
+	}
+	finally {
+	    lock.release();
+	}
+    }
+
+    /**
+     * Finds the slot holding a key, if its record is still there.
+     *
+     * @param written the number of bytes written so far
+     * @return the offset of the slot in the file, or -1 if the key isn't stored
+     */
+    private int find(long[] key, long written) {
+	int home = (int)Math.floorMod(key[0], (long)SLOTS);
+	for(int probe = 0; probe < PROBES; probe++) {
+	    int slot = HEADER + ((home + probe) % SLOTS) * SLOT;
+	    if(live(slot, written) && map.getLong(slot) == key[0]
+	       && map.getLong(slot + 8) == key[1])
+		return slot;
+	}
+
+	return -1;
+    }
+
+    /**
+     * Picks the slot to put a new key in: an empty one if there is one, and otherwise the one
+     * with the oldest record.
+     *
+     * @param written the number of bytes that will have been written, for ageing out records
+     * @return the offset of the slot in the file
+     */
+    private int victim(long[] key, long written) {
+	int home = (int)Math.floorMod(key[0], (long)SLOTS);
+	int best = -1;
+	long oldest = Long.MAX_VALUE;
+	for(int probe = 0; probe < PROBES; probe++) {
+	    int slot = HEADER + ((home + probe) % SLOTS) * SLOT;
+	    long age = live(slot, written) ? map.getLong(slot + 16) : -1;
+	    if(age < oldest) {
+		oldest = age;
+		best = slot;
+	    }
+	}
+
+	return best;
+    }
+
+    /**
+     * Does a slot point at a record that hasn't been overwritten yet?
+     */
+    private boolean live(int slot, long written) {
+	return map.getLong(slot + 24) > 0 && map.getLong(slot + 16) >= written - capacity;
+    }
+
+    /**
+     * Works out the key of a tally: a digest of everything in a tournament that the odds
+     * depend on.
+     *
+     * @param t the tournament
+     * @param cutSize the number of players in the top cut
+     * @param twoFourOne whether only sweeps are considered for open tables
+     * @return the first 128 bits of the digest
+     */
+    static long[] key(Tournament t, int cutSize, boolean twoFourOne) {
+	var bytes = new ByteArrayOutputStream();
+	var out = new DataOutputStream(bytes);
+	try {
+	    out.writeInt(VERSION);
+	    out.writeInt(cutSize);
+	    out.writeBoolean(twoFourOne);
+	    out.writeInt(t.roundCount);
+	    out.writeInt(t.size());
+	    for(int i = 0; i < t.size(); i++) {
+		out.write(t.names[i].getBytes(StandardCharsets.UTF_8));
+		out.writeByte(0);
+		out.writeInt(t.scores[i]);
+		out.writeInt(t.rounds[i]);
+		out.writeInt(t.first[i+1] - t.first[i]);
+		for(int e = t.first[i]; e < t.first[i+1]; e++)
+		    out.writeInt(t.opponent[e]);
+	    }
+
+	    out.writeInt(t.openTables());
+	    for(int i = 0; i < t.openTables(); i++) {
+		out.writeInt(t.left[i]);
+		out.writeInt(t.right[i]);
+	    }
+	}
+	catch(IOException e) {
+	    //writing to memory can't fail
+	    throw new IllegalStateException(e);
+	}
+
+	return digest(bytes.toByteArray());
+    }
+
+    /**
+     * Works out a digest of some bytes that nothing else will share: the start of their
+     * SHA-256.
+     *
+     * @param bytes the bytes to digest
+     * @return the first 128 bits of the digest
+     */
+    static long[] digest(byte[] bytes) {
+	byte[] hash;
+	try {
+	    hash = MessageDigest.getInstance("SHA-256").digest(bytes);
+	}
+	catch(NoSuchAlgorithmException e) {
+	    //every java platform is required to have SHA-256
+	    throw new IllegalStateException(e);
+	}
+
+	long high = 0, low = 0;
+	for(int i = 0; i < 8; i++) {
+	    high = (high << 8) | (hash[i] & 0xff);
+	    low = (low << 8) | (hash[i + 8] & 0xff);
+	}
+
+	return new long[] {high, low};
+    }
+}
@@ -0,0 +1,625 @@
+package com.nbkelly.outcomes;
+
+/* imports */
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * Serves the standings, odds, contention, inspect-player and show-opponents outputs as JSON,
+ * so that the web page can hand off tournaments too big to work out in the browser.
+ * <p>
+ * Every endpoint takes the pairings as the body of a POST, in the same format as the pairings
+ * file, or on a GET reads the pairings file (or cobr.ai tournament) the server was started
+ * with. The round count, cut size, player and so on are query parameters, defaulting to those
+ * the server was started with:
+ * <pre>
+ *   /standings                         current standings
+ *   /odds?cut=8&amp;mode=241              odds of making the cut (mode is all or 241)
+ *   /contention?cut=8                  odds on a sweep, split or fold, and who is safe to ID
+ *   /inspect?player=NAME&amp;max=5         the outcomes in which a player makes the cut
+ *   /opponents?player=NAME             a player's opponents
+ *   /progress?cut=8&amp;mode=241          the odds as server-sent events, while they are worked out
+ *   /stats                             how well the cache of tallies is doing
+ * </pre>
+ * The round count and cut size only need to be given when the server is started if requests
+ * are to leave them out.
+ * <p>
+ * The server listens on the loopback address unless told otherwise, and only tells browsers
+ * to let one origin (the web page) read its answers, since every request can set it to work.
+ * <p>
+ * Each request is handled on its own thread - a virtual thread where the platform has them -
+ * and the work itself runs as it would from the command line, sharing the pool of worker
+ * threads. Requests for the odds of the same tournament share their tallies (see TallyCache).
+ * No request works on the odds for longer than the time budget (REQUEST_BUDGET if none was
+ * given): after that, the odds come back as bounds, marked as not exact.
+ */
+class Server {
+    /** how long a request may spend working out the odds, unless the server is given a time
+	budget, in nanoseconds */
+    static final long REQUEST_BUDGET = 30_000_000_000L;
+
+    private final Outcomes outcomes;
+    private final HttpServer http;
+    private final ExecutorService executor;
+    /** tallies being worked out and worked out recently, shared between requests */
+    final TallyCache cache;
+    /** the progress of the tallies being worked out */
+    private final ConcurrentHashMap<TallyCache.Key, Progress> running = new ConcurrentHashMap<>();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    /** the origin browsers may read answers from, or * for any */
+    private final String origin;
+
+    /** something wrong with a request, answered with a 400 */
+    static class BadRequest extends Exception {
+	private static final long serialVersionUID = 1L;
+
+	BadRequest(String message) {
+	    super(message);
+	}
+    }
+
+    /** an endpoint: the pairings and query of a request in, the JSON document out */
+    private interface Endpoint {
+	String answer(Outcomes.Parsed parsed, HashMap<String, String> query) throws BadRequest;
+    }
+
+    /**
+     * Creates a server, without starting it.
+     *
+     * @param outcomes the settings and workings to answer requests with
+     * @param host the address to listen on
+     * @param port the port to listen on
+     * @param origin the origin browsers may read answers from, or * for any
+     * @throws IOException if the port can't be bound
+     */
+    Server(Outcomes outcomes, String host, int port, String origin) throws IOException {
+	this.outcomes = outcomes;
+	this.origin = origin;
+	http = HttpServer.create(new InetSocketAddress(host, port), 0);
+	executor = perRequest();
+	http.setExecutor(executor);
+	cache = new TallyCache(outcomes.cacheSize, outcomes.cacheTtl);
+
+	route("/standings", this::standings);
+	route("/odds", this::odds);
+	route("/contention", this::contention);
+	route("/inspect", this::inspect);
+	route("/opponents", this::opponents);
+	http.createContext("/stats", exchange -> respond(exchange, 200, stats()));
+	http.createContext("/progress", this::stream);
+    }
+
+    /**
+     * Gets an executor that runs each task on a new virtual thread, or, before java 21, on a
+     * cached pool of platform threads.
+     */
+    static ExecutorService perRequest() {
+	try {
+	    var method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+	    return (ExecutorService)method.invoke(null);
+	}
+	catch(ReflectiveOperationException e) {
+	    return Executors.newCachedThreadPool();
+	}
+    }
+
+    /**
+     * Starts serving, and waits until the server is stopped.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void serve() throws InterruptedException {
+	http.start();
+	stopped.await();
+    }
+
+    /**
+     * Stops serving, letting requests in progress finish for up to a second.
+     */
+    void stop() {
+	http.stop(1);
+	executor.shutdown();
+	stopped.countDown();
+    }
+
+    /**
+     * Gets the address the server is listening on.
+     */
+    InetSocketAddress address() {
+	return http.getAddress();
+    }
+
+    private void route(String path, Endpoint endpoint) {
+	http.createContext(path, exchange -> handle(exchange, endpoint));
+    }
+
+    /**
+     * Answers a request: reads the pairings and query, runs the endpoint, and writes its
+     * document (or the error) back.
+     */
+    private void handle(HttpExchange exchange, Endpoint endpoint) throws IOException {
+	int status = 200;
+	String body;
+	try {
+	    var method = exchange.getRequestMethod();
+	    if(!method.equals("GET") && !method.equals("POST")) {
+		status = 405;
+		throw new BadRequest("only GET and POST are supported");
+	    }
+	    if(!exchange.getHttpContext().getPath().equals(exchange.getRequestURI().getPath())) {
+		status = 404;
+		throw new BadRequest("no such endpoint: " + exchange.getRequestURI().getPath());
+	    }
+
+	    var query = query(exchange.getRequestURI().getRawQuery());
+	    body = endpoint.answer(pairings(exchange, query), query);
+	}
+	catch(BadRequest e) {
+	    status = status == 200 ? 400 : status;
+	    body = error(e.getMessage());
+	}
+	catch(IOException e) {
+	    //cobr.ai is down, or sent something that isn't a tournament
+	    status = 502;
+	    body = error("could not fetch the pairings: " + e.getMessage());
+	}
+	catch(RuntimeException e) {
+	    //a bug of ours, not a bad request
+	    status = 500;
+	    body = error("could not answer: " + e);
+	}
+
+	respond(exchange, status, body);
+    }
+
+    private void respond(HttpExchange exchange, int status, String body) throws IOException {
+	var bytes = body.getBytes(StandardCharsets.UTF_8);
+	var headers = exchange.getResponseHeaders();
+	headers.set("Content-Type", "application/json; charset=utf-8");
+	headers.set("Access-Control-Allow-Origin", origin);
+	try {
+	    exchange.sendResponseHeaders(status, bytes.length);
+	    exchange.getResponseBody().write(bytes);
+	}
+	finally {
+	    exchange.close();
+	}
+    }
+
+    /**
+     * Reads the pairings of a request: its body, or if it has none, the pairings file or
+     * cobr.ai, whichever the server was started with.
+     */
+    private Outcomes.Parsed pairings(HttpExchange exchange, HashMap<String, String> query)
+	throws BadRequest, IOException {
+	ArrayList<String> lines;
+	try(var reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(),
+								  StandardCharsets.UTF_8))) {
+	    lines = reader.lines().collect(Collectors.toCollection(ArrayList::new));
+	}
+
+	int rounds = number(query, "rounds", outcomes.roundCount, 1, 10);
+	if(lines.isEmpty() && outcomes.cobra != null)
+	    return outcomes.fetch(rounds);
+
+	if(lines.isEmpty()) {
+	    if(outcomes.pairingsFile == null)
+		throw new BadRequest("no pairings were sent, and the server has no pairings file");
+
+	    lines = outcomes.readFileLines(outcomes.pairingsFile);
+	    if(lines == null)
+		throw new BadRequest("no pairings were sent, and the pairings file can't be read");
+	}
+
+	try {
+	    return outcomes.parse(lines, rounds);
+	}
+	catch(RuntimeException e) {
+	    throw new BadRequest("could not read the pairings: " + e);
+	}
+    }
+
+    private String standings(Outcomes.Parsed parsed, HashMap<String, String> query)
+	throws BadRequest {
+	return standings(parsed.tournament, number(query, "cut", outcomes.cutSize, 1, 10));
+    }
+
+    /**
+     * Writes the standings document for a tournament.
+     */
+    static String standings(Tournament t, int cut) {
+	var engine = new Engine(t, cut, false);
+	engine.rank();
+
+	var players = new ArrayList<String>();
+	for(var player : engine.order)
+	    players.add(String.format("{\"rank\":%d,\"name\":%s,\"score\":%d,\"sos\":%s,\"esos\":%s}",
+				      players.size() + 1, quote(t.names[player]), engine.score[player],
+				      number(engine.sos(player)), number(engine.esos(player))));
+
+	return String.format("{\"players\":%d,\"openTables\":%d,\"standings\":[%s]}",
+			     t.size(), t.openTables(), String.join(",", players));
+    }
+
+    private String odds(Outcomes.Parsed parsed, HashMap<String, String> query)
+	throws BadRequest {
+	var t = parsed.tournament;
+	int cut = number(query, "cut", outcomes.cutSize, 1, 10);
+	var mode = mode(query);
+	if(t.openTables() == 0)
+	    return odds(outcomes, t, cut, mode, null);
+
+	return odds(outcomes, t, cut, mode, tally(t, cut, mode.equals("241")));
+    }
+
+    /**
+     * Writes the odds document for a tally.
+     *
+     * @param outcomes the settings the tally was worked out with
+     * @param tally the tally, or null if there are no open tables
+     */
+    static String odds(Outcomes outcomes, Tournament t, int cut, String mode, Tally tally) {
+	var odds = new ArrayList<String>();
+	if(tally == null) {
+	    //nothing left to play: the top of the standings make it
+	    var engine = new Engine(t, cut, false);
+	    engine.rank();
+	    for(int i = 0; i < Math.min(cut, t.size()); i++)
+		odds.add(String.format("{\"name\":%s,\"odds\":100}", quote(t.names[engine.order[i]])));
+
+	    return String.format("{\"cut\":%d,\"mode\":%s,\"outcomes\":1,\"exact\":true,"
+				 + "\"sampled\":false,\"odds\":[%s]}",
+				 cut, quote(mode), String.join(",", odds));
+	}
+
+	for(var odd : outcomes.odds(t, tally, cut)) {
+	    var entry = new StringBuilder(String.format("{\"name\":%s,\"odds\":%s", quote(odd.name),
+							number(odd.pct)));
+	    if(odd.interval != null)
+		entry.append(String.format(",\"lower\":%s,\"upper\":%s", number(odd.interval[0]),
+					   number(odd.interval[1])));
+	    if(odd.upper != null)
+		entry.append(String.format(",\"upper\":%s", number(odd.upper)));
+	    odds.add(entry.append("}").toString());
+	}
+
+	return String.format("{\"cut\":%d,\"mode\":%s,\"outcomes\":%d,\"exact\":%b,"
+			     + "\"sampled\":%b,\"odds\":[%s]}",
+			     cut, quote(mode), tally.leaves, tally.exact(), tally.sampled(),
+			     String.join(",", odds));
+    }
+
+    /**
+     * Streams the odds as server-sent events while they are worked out: a progress event with
+     * the running odds and their bounds every so often, then a result event with the same
+     * document /odds gives. If the client goes away, the odds are still worked out, and kept
+     * for whoever asks next.
+     */
+    private void stream(HttpExchange exchange) throws IOException {
+	Tournament t;
+	int cut;
+	String mode;
+	try {
+	    if(!exchange.getRequestMethod().equals("GET")
+	       && !exchange.getRequestMethod().equals("POST"))
+		throw new BadRequest("only GET and POST are supported");
+
+	    var query = query(exchange.getRequestURI().getRawQuery());
+	    t = pairings(exchange, query).tournament;
+	    cut = number(query, "cut", outcomes.cutSize, 1, 10);
+	    mode = mode(query);
+	}
+	catch(BadRequest e) {
+	    respond(exchange, 400, error(e.getMessage()));
+	    return;
+	}
+	catch(IOException e) {
+	    respond(exchange, 502, error("could not fetch the pairings: " + e.getMessage()));
+	    return;
+	}
+	catch(RuntimeException e) {
+	    respond(exchange, 500, error("could not answer: " + e));
+	    return;
+	}
+
+	var key = TallyCache.key(t, cut, mode.equals("241"));
+	var result = t.openTables() == 0
+	    ? CompletableFuture.<Tally>completedFuture(null)
+	    : CompletableFuture.supplyAsync(() -> tally(t, cut, mode.equals("241")), executor);
+
+	var headers = exchange.getResponseHeaders();
+	headers.set("Content-Type", "text/event-stream; charset=utf-8");
+	headers.set("Cache-Control", "no-cache");
+	headers.set("Access-Control-Allow-Origin", origin);
+	exchange.sendResponseHeaders(200, 0);
+	try(var out = exchange.getResponseBody()) {
+	    //only the latest snapshot is ever sent, so a slow client just sees fewer of them
+	    long sent = 0;
+	    while(!result.isDone()) {
+		var progress = running.get(key);
+		var snapshot = progress == null ? null : progress.snapshot();
+		if(snapshot != null && !snapshot.finished && snapshot.time != sent) {
+		    event(out, "progress", progress(t, snapshot));
+		    sent = snapshot.time;
+		}
+
+		try {
+		    result.get(Outcomes.PROGRESS_INTERVAL, TimeUnit.NANOSECONDS);
+		}
+		catch(TimeoutException | ExecutionException e) {
+		    //still going, or failed (which is reported below)
+		}
+		catch(InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		    return;
+		}
+	    }
+
+	    try {
+		event(out, "result", odds(outcomes, t, cut, mode, result.join()));
+	    }
+	    catch(CompletionException e) {
+		event(out, "error", error("could not work out the odds: " + e.getCause()));
+	    }
+	}
+	catch(IOException e) {
+	    //the client went away
+	}
+	finally {
+	    exchange.close();
+	}
+    }
+
+    /**
+     * Writes a snapshot of the odds: everyone who has made the cut so far, with their bounds.
+     * Everyone else has the same bounds, from none to all of the outcomes left.
+     */
+    private String progress(Tournament t, Progress.Snapshot snapshot) {
+	var players = new ArrayList<Integer>();
+	for(int p = 0; p < snapshot.players(); p++)
+	    if(snapshot.counted(p))
+		players.add(p);
+	players.sort((a, b) -> snapshot.odds(a) != snapshot.odds(b)
+		     ? Double.compare(snapshot.odds(b), snapshot.odds(a))
+		     : t.names[a].compareTo(t.names[b]));
+
+	var odds = new ArrayList<String>();
+	for(var p : players)
+	    odds.add(String.format("{\"name\":%s,\"odds\":%s,\"lower\":%s,\"upper\":%s}",
+				   quote(t.names[p]), number(snapshot.odds(p)),
+				   number(snapshot.lower(p)), number(snapshot.upper(p))));
+
+	return String.format("{\"done\":%d,\"total\":%d,\"odds\":[%s],\"othersUpper\":%s}",
+			     snapshot.done, snapshot.total, String.join(",", odds),
+			     number(snapshot.left()));
+    }
+
+    private static void event(OutputStream out, String name, String data) throws IOException {
+	out.write(("event: " + name + "\ndata: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+	out.flush();
+    }
+
+    private static String mode(HashMap<String, String> query) throws BadRequest {
+	var mode = query.getOrDefault("mode", "all");
+	if(!mode.equals("all") && !mode.equals("241"))
+	    throw new BadRequest("mode must be all or 241");
+
+	return mode;
+    }
+
+    private String contention(Outcomes.Parsed parsed, HashMap<String, String> query)
+	throws BadRequest {
+	var t = parsed.tournament;
+	int cut = number(query, "cut", outcomes.cutSize, 1, 10);
+	if(t.openTables() == 0)
+	    return String.format("{\"cut\":%d,\"exact\":true,\"contention\":[],\"safeToId\":[]}", cut);
+
+	//the table needs every outcome, so a walk that ran out of time has nothing to show
+	var tally = tally(t, cut, false);
+	var players = new ArrayList<String>();
+	var safe = new ArrayList<String>();
+	if(tally.exact()) {
+	    var ssf = outcomes.sweepSplitFold(t, tally, cut);
+	    var names = new ArrayList<String>(ssf.keySet());
+	    Collections.sort(names);
+	    for(var name : names) {
+		var odds = ssf.get(name);
+		if(odds.get(0) > 0d)
+		    players.add(String.format("{\"name\":%s,\"sweep\":%s,\"split\":%s,\"fold\":%s}",
+					      quote(name), number(odds.get(0)),
+					      number(odds.get(1)), number(odds.get(2))));
+	    }
+
+	    for(var name : outcomes.safeToId(t, tally, cut))
+		safe.add(quote(name));
+	}
+
+	return String.format("{\"cut\":%d,\"exact\":%b,\"sampled\":%b,\"contention\":[%s],"
+			     + "\"safeToId\":[%s]}",
+			     cut, tally.exact(), tally.sampled(), String.join(",", players),
+			     String.join(",", safe));
+    }
+
+    private String inspect(Outcomes.Parsed parsed, HashMap<String, String> query)
+	throws BadRequest {
+	var t = parsed.tournament;
+	int cut = number(query, "cut", outcomes.cutSize, 1, 10);
+	int max = number(query, "max", outcomes.scenarioMax, 0, 1000);
+	var player = player(t, query);
+
+	var shown = new ArrayList<int[]>();
+	long count = outcomes.inspectPlayer_scenarios(player, t, cut, max, shown);
+
+	var scenarios = new ArrayList<String>();
+	for(var scenario : shown) {
+	    var tables = new ArrayList<String>();
+	    for(int table = 0; table < t.openTables(); table++)
+		tables.add(String.format("{\"left\":%s,\"result\":%s,\"right\":%s}",
+					 quote(t.names[t.left[table]]),
+					 quote(RESULTS[scenario[table]]),
+					 quote(t.names[t.right[table]])));
+	    scenarios.add("[" + String.join(",", tables) + "]");
+	}
+
+	return String.format("{\"player\":%s,\"cut\":%d,\"outcomes\":%d,\"scenarios\":%d,"
+			     + "\"shown\":[%s]}",
+			     quote(player), cut, (long)Math.pow(3, t.openTables()), count,
+			     String.join(",", scenarios));
+    }
+
+    private String opponents(Outcomes.Parsed parsed, HashMap<String, String> query)
+	throws BadRequest {
+	var player = player(parsed.tournament, query);
+	var opponents = new ArrayList<String>();
+	for(var name : parsed.opps.get(player)) {
+	    var score = parsed.scores.get(name);
+	    opponents.add(String.format("{\"name\":%s,\"points\":%s}", quote(name),
+					score == null ? "null" : score.toString()));
+	}
+
+	return String.format("{\"player\":%s,\"opponents\":[%s]}", quote(player),
+			     String.join(",", opponents));
+    }
+
+    /**
+     * Works out the odds for a tournament, or shares them with whoever else is asking, within
+     * the time allowed for a request.
+     */
+    private Tally tally(Tournament t, int cut, boolean twoFourOne) {
+	var key = TallyCache.key(t, cut, twoFourOne);
+	return cache.get(key, () -> {
+		//let anyone streaming these odds see how far the walk has got
+		var progress = new Progress(t, cut, Outcomes.PROGRESS_INTERVAL);
+		running.put(key, progress);
+		try {
+		    long budget = outcomes.budget == null ? REQUEST_BUDGET : outcomes.budget;
+		    var tally = outcomes.run(new Engine(t, cut, twoFourOne), progress,
+					     System.nanoTime() + budget);
+		    progress.finish(tally);
+		    return tally;
+		}
+		finally {
+		    running.remove(key, progress);
+		}
+	    });
+    }
+
+    private String stats() {
+	return String.format("{\"hits\":%d,\"misses\":%d,\"coalesced\":%d,\"evictions\":%d,"
+			     + "\"expirations\":%d,\"size\":%d,\"capacity\":%d}",
+			     cache.hits.sum(), cache.misses.sum(), cache.coalesced.sum(),
+			     cache.evictions.sum(), cache.expirations.sum(), cache.size(),
+			     cache.capacity);
+    }
+
+    /** how each result code is written in a scenario */
+    private static final String[] RESULTS = {"6 - 0", "3 - 3", "0 - 6"};
+
+    private static String player(Tournament t, HashMap<String, String> query) throws BadRequest {
+	var player = query.get("player");
+	if(player == null)
+	    throw new BadRequest("player is required");
+	if(!t.ids.containsKey(player))
+	    throw new BadRequest("there is no player named " + player);
+
+	return player;
+    }
+
+    /**
+     * Reads the parameters of a query string.
+     */
+    static HashMap<String, String> query(String raw) {
+	var query = new HashMap<String, String>();
+	if(raw == null)
+	    return query;
+
+	for(var pair : raw.split("&")) {
+	    if(pair.isEmpty())
+		continue;
+
+	    int at = pair.indexOf('=');
+	    var key = at < 0 ? pair : pair.substring(0, at);
+	    var value = at < 0 ? "" : pair.substring(at + 1);
+	    query.put(URLDecoder.decode(key, StandardCharsets.UTF_8),
+		      URLDecoder.decode(value, StandardCharsets.UTF_8));
+	}
+
+	return query;
+    }
+
+    /**
+     * Reads a whole number from a query, within the same bounds as its command.
+     */
+    static int number(HashMap<String, String> query, String key, Integer fallback, int min,
+		      int max) throws BadRequest {
+	var value = query.get(key);
+	if(value == null && fallback == null)
+	    throw new BadRequest(key + " must be given, since the server was started without it");
+	if(value == null)
+	    return fallback;
+
+	try {
+	    int number = Integer.parseInt(value);
+	    if(number >= min && number <= max)
+		return number;
+	}
+	catch(NumberFormatException e) {
+	    //answered below
+	}
+
+	throw new BadRequest(String.format("%s must be a number from %d to %d", key, min, max));
+    }
+
+    /**
+     * Writes a number as JSON, which has no way to write infinities or NaN.
+     */
+    static String number(double value) {
+	if(Double.isNaN(value) || Double.isInfinite(value))
+	    return "null";
+
+	return String.format(Locale.ROOT, "%.6f", value).replaceAll("\\.?0+$", "");
+    }
+
+    /**
+     * Writes a string as JSON.
+     */
+    static String quote(String value) {
+	var quoted = new StringBuilder("\"");
+	for(int i = 0; i < value.length(); i++) {
+	    char c = value.charAt(i);
+	    if(c == '"' || c == '\\')
+		quoted.append('\\').append(c);
+	    else if(c < 0x20)
+		quoted.append(String.format("\\u%04x", (int)c));
+	    else
+		quoted.append(c);
+	}
+
+	return quoted.append('"').toString();
+    }
+
+    private static String error(String message) {
+	return "{\"error\":" + quote(message) + "}";
+    }
+}
@@ -0,0 +1,194 @@
+package com.nbkelly.outcomes;
+
+/**
+ * Counts of how often each player made the cut over a set of enumerated outcomes.
+ * <p>
+ * Alongside the plain counts, each player's cut count is split by the result of their own
+ * table, which is all that is needed to read off the sweep/split/fold and safe-to-ID tables
+ * without enumerating again.
+ * <p>
+ * A tally may also count sampled outcomes rather than every outcome. A sampled tally also
+ * counts how often each result was drawn at each table, since that is no longer an exact
+ * share of the samples.
+ * <p>
+ * An exhaustive walk that was stopped early leaves some outcomes unexplored. Those are still
+ * counted in the leaves, and any player who could have made the cut in them is counted as a
+ * maybe, so that each player's odds lie somewhere between their cut count and their cut count
+ * plus their maybes.
+ */
+class Tally {
+    /** number of outcomes counted */
+    long leaves = 0;
+    /** number of results each open table can have: 2 under 241s, where there are no splits */
+    int branches = 3;
+    /** number of outcomes in which each player made the cut */
+    final long[] cut;
+    /** number of outcomes in which each player made the cut, by the result of their table */
+    final long[] own;
+    /** number of sampled outcomes with each result at each open table (null if exhaustive) */
+    final long[] results;
+    /** number of outcomes left unexplored, and in how many of those each player might make it */
+    long unexplored = 0;
+    final long[] maybe;
+
+    /** z-score of a 95% confidence interval */
+    static final double Z = 1.959963984540054;
+
+    /**
+     * Creates an empty tally for a given number of players.
+     *
+     * @param players the number of interned players
+     */
+    Tally(int players) {
+	cut = new long[players];
+	own = new long[players * 3];
+	results = null;
+	maybe = new long[players];
+    }
+
+    /**
+     * Creates an empty tally for sampled outcomes.
+     *
+     * @param players the number of interned players
+     * @param tables the number of open tables
+     */
+    Tally(int players, int tables) {
+	cut = new long[players];
+	own = new long[players * 3];
+	results = new long[tables * 3];
+	maybe = new long[players];
+    }
+
+    /**
+     * Does this tally count sampled outcomes, rather than every outcome?
+     *
+     * @return true if the outcomes were sampled
+     */
+    boolean sampled() {
+	return results != null;
+    }
+
+    /**
+     * Gets the total number of cut places handed out over all outcomes. That is the outcomes
+     * times the seats, which can be more than a long holds even when the outcomes aren't.
+     *
+     * @return the sum of every player's cut count
+     */
+    double total() {
+	double total = 0;
+	for(var count : cut)
+	    total += count;
+
+	return total;
+    }
+
+    /**
+     * Gets the number of outcomes in which a player made the cut, given a result at their table.
+     *
+     * @param player the id of the player
+     * @param result the result at the player's table (in table terms, not the player's)
+     * @return the number of outcomes counted
+     */
+    long own(int player, int result) {
+	return own[player * 3 + result];
+    }
+
+    /**
+     * Was every outcome counted exactly (or sampled), rather than some left unexplored?
+     *
+     * @return true if no outcome was left unexplored
+     */
+    boolean exact() {
+	return unexplored == 0;
+    }
+
+    /**
+     * Gets the number of outcomes counted with a given result at a table.
+     *
+     * @param table the index of the table
+     * @param result the result at the table
+     * @return the number of outcomes counted with that result
+     */
+    long outcomes(int table, int result) {
+	if(results != null)
+	    return results[table * 3 + result];
+
+	//under 241s a table is never split, and each sweep covers half of the outcomes
+	if(branches == 2 && result == Engine.SPLIT)
+	    return 0;
+
+	//otherwise every table result covers exactly a third of them
+	return leaves / branches;
+    }
+
+    /**
+     * Gets the 95% Wilson score interval of a proportion estimated from samples.
+     *
+     * @param hits the number of samples in which something happened
+     * @param trials the number of samples
+     * @return the lower and upper bounds of the proportion
+     */
+    static double[] interval(long hits, long trials) {
+	if(trials == 0)
+	    return new double[] {0d, 1d};
+
+	double p = hits / (double)trials;
+	double z2 = Z * Z / trials;
+	double centre = (p + z2 / 2) / (1 + z2);
+	double spread = Z * Math.sqrt(p * (1 - p) / trials + z2 / (4 * trials)) / (1 + z2);
+
+	return new double[] {Math.max(0d, centre - spread), Math.min(1d, centre + spread)};
+    }
+
+    /**
+     * Adds the counts of another tally over the same players into this one.
+     *
+     * @param other the tally to merge
+     */
+    void merge(Tally other) {
+	leaves += other.leaves;
+	for(int i = 0; i < cut.length; i++)
+	    cut[i] += other.cut[i];
+	for(int i = 0; i < own.length; i++)
+	    own[i] += other.own[i];
+	if(results != null)
+	    for(int i = 0; i < results.length; i++)
+		results[i] += other.results[i];
+
+	unexplored += other.unexplored;
+	for(int i = 0; i < maybe.length; i++)
+	    maybe[i] += other.maybe[i];
+    }
+
+    /**
+     * Re-indexes an exhaustive tally for the same players interned by another tournament (as
+     * when the pairings are read again, and players and tables come out in a different order).
+     * Counts by result are only carried over for players whose table is still open, flipped if
+     * they have changed sides.
+     *
+     * @param from the tournament this tally was counted over
+     * @param to the tournament to index it by
+     * @return the re-indexed tally
+     */
+    Tally remap(Tournament from, Tournament to) {
+	var tally = new Tally(to.size());
+	tally.leaves = leaves;
+	tally.branches = branches;
+	tally.unexplored = unexplored;
+	for(int p = 0; p < to.size(); p++) {
+	    int q = from.ids.get(to.names[p]);
+	    tally.cut[p] = cut[q];
+	    tally.maybe[p] = maybe[q];
+
+	    int table = to.table[p];
+	    if(table < 0 || from.table[q] < 0)
+		continue;
+
+	    boolean flipped = (to.left[table] == p) != (from.left[from.table[q]] == q);
+	    for(int r = 0; r < 3; r++)
+		tally.own[p * 3 + r] = own[q * 3 + (flipped ? 2 - r : r)];
+	}
+
+	return tally;
+    }
+}
@@ -0,0 +1,198 @@
+package com.nbkelly.outcomes;
+
+/* imports */
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Tallies worked out for callers asking about the same tournament at the same time.
+ * <p>
+ * When a round is being streamed, everyone watching asks about the same snapshot of the same
+ * tournament at once. The first caller for a key works the tally out, and everyone who asks
+ * for that key while it is being worked out waits for the same tally rather than starting
+ * their own. Finished tallies are then kept for a while, so the next wave of callers is
+ * answered at once: each is dropped once it is older than the time to live, and the least
+ * recently used are dropped first when there are too many.
+ * <p>
+ * Only exact tallies are kept. A sampled tally, or one whose walk ran out of time, answers
+ * the callers waiting on it, but the next caller works the tally out afresh, since the key
+ * doesn't say how accurately it was asked for.
+ * <p>
+ * Tallies are shared between every caller they are handed to, so must not be changed.
+ */
+class TallyCache {
+    /** a snapshot of a tournament, with the cut size and mode */
+    static class Key {
+	final long[] digest;
+	final int hash;
+
+	Key(long[] digest) {
+	    this.digest = digest;
+	    hash = Arrays.hashCode(digest);
+	}
+
+	@Override public int hashCode() {
+	    return hash;
+	}
+
+	@Override public boolean equals(Object other) {
+	    return other instanceof Key && Arrays.equals(digest, ((Key)other).digest);
+	}
+    }
+
+    /** a finished tally, and when it was finished */
+    private static class Entry {
+	final Tally tally;
+	final long finished;
+
+	Entry(Tally tally, long finished) {
+	    this.tally = tally;
+	    this.finished = finished;
+	}
+    }
+
+    /** the number of tallies kept, and how long each is kept for in nanoseconds */
+    final int capacity;
+    final long ttl;
+
+    private final LinkedHashMap<Key, Entry> entries;
+    private final ConcurrentHashMap<Key, CompletableFuture<Tally>> inFlight
+	= new ConcurrentHashMap<>();
+
+    /** callers answered from the cache, callers who worked a tally out, and callers who
+	waited on someone else working it out */
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder coalesced = new LongAdder();
+    /** tallies dropped for being least recently used, and for being too old */
+    final LongAdder evictions = new LongAdder();
+    final LongAdder expirations = new LongAdder();
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param capacity the number of tallies to keep (0 keeps none, but still coalesces)
+     * @param ttl how long to keep each tally for, in nanoseconds
+     */
+    TallyCache(int capacity, long ttl) {
+	this.capacity = capacity;
+	this.ttl = ttl;
+
+	entries = new LinkedHashMap<>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override protected boolean removeEldestEntry(java.util.Map.Entry<Key, Entry> eldest) {
+		    if(size() <= TallyCache.this.capacity)
+			return false;
+
+		    evictions.increment();
+		    return true;
+		}
+	    };
+    }
+
+    /**
+     * Gets the key of a tally.
+     *
+     * @param t the tournament
+     * @param cutSize the number of players in the top cut
+     * @param twoFourOne whether only sweeps are considered for open tables
+     * @return the key
+     */
+    static Key key(Tournament t, int cutSize, boolean twoFourOne) {
+	return new Key(ResultStore.key(t, cutSize, twoFourOne));
+    }
+
+    /**
+     * Gets a tally: from the cache, from whoever is already working it out, or by working it
+     * out.
+     *
+     * @param key the key of the tally
+     * @param work works the tally out
+     * @return the tally, shared with every other caller for the key
+     */
+    Tally get(Key key, Supplier<Tally> work) {
+	var tally = cached(key);
+	if(tally != null) {
+	    hits.increment();
+	    return tally;
+	}
+
+	var flight = new CompletableFuture<Tally>();
+	var leader = inFlight.putIfAbsent(key, flight);
+	if(leader != null) {
+	    coalesced.increment();
+	    return join(leader);
+	}
+
+	try {
+	    //someone may have finished it between looking in the cache and taking off
+	    tally = cached(key);
+	    if(tally != null)
+		hits.increment();
+	    else {
+		misses.increment();
+		tally = work.get();
+		put(key, tally);
+	    }
+
+	    flight.complete(tally);
+	    return tally;
+	}
+	catch(RuntimeException | Error e) {
+	    flight.completeExceptionally(e);
+	    throw e;
+	}
+	finally {
+	    inFlight.remove(key, flight);
+	}
+    }
+
+    /**
+     * Gets the number of tallies kept.
+     */
+    synchronized int size() {
+	return entries.size();
+    }
+
+    private synchronized Tally cached(Key key) {
+	var entry = entries.get(key);
+	if(entry == null)
+	    return null;
+
+	if(System.nanoTime() - entry.finished > ttl) {
+	    entries.remove(key);
+	    expirations.increment();
+	    return null;
+	}
+
+	return entry.tally;
+    }
+
+    private synchronized void put(Key key, Tally tally) {
+	if(capacity > 0 && tally.exact() && !tally.sampled())
+	    entries.put(key, new Entry(tally, System.nanoTime()));
+    }
+
+    /**
+     * Waits for someone else's tally, failing the same way they did if they failed.
+     */
+    private static Tally join(CompletableFuture<Tally> flight) {
+	try {
+	    return flight.join();
+	}
+	catch(CompletionException e) {
+	    if(e.getCause() instanceof RuntimeException)
+		throw (RuntimeException)e.getCause();
+	    if(e.getCause() instanceof Error)
+		throw (Error)e.getCause();
+
+	    throw e;
+	}
+    }
+}
@@ -0,0 +1,256 @@
+package com.nbkelly.outcomes;
+
+/* imports */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeSet;
+import java.util.HashMap;
+
+/**
+ * An interned, int-indexed snapshot of a tournament.
+ * <p>
+ * Player names are mapped to ids exactly once, so that the outcome engines can work on
+ * primitive arrays instead of string-keyed maps. A tournament is never modified after it
+ * has been built, and may be shared between any number of engines.
+ * <p>
+ * The opponent graph is stored in compressed sparse row form: the opponents of player i are
+ * opponent[first[i]] up to (but not including) opponent[first[i+1]].
+ * <p>
+ * SoS and ESoS are exact fractions, so every player's tiebreaks are kept as integer numerators
+ * over two denominators shared by the whole tournament. Where they fit, a player's score,
+ * tiebreaks and name are packed into a single long, so that ranking two players is one
+ * comparison.
+ */
+class Tournament {
+    /** the name cobr.ai gives to the bye */
+    static final String BYE = "(Bye)";
+
+    /** player names, indexed by id */
+    final String[] names;
+    /** player ids, indexed by name */
+    final HashMap<String, Integer> ids = new HashMap<>();
+    /** position of each player when sorted by name (used to break ties) */
+    final int[] nameRank;
+
+    /** reported score of each player */
+    final int[] scores;
+    /** the distinct opponents of each player, sorted by id */
+    final int[] first;
+    final int[] opponent;
+    /** number of rounds that count towards the SoS/ESoS of each player */
+    final int[] rounds;
+    /** is this id the bye? */
+    final boolean[] bye;
+
+    /** SoS is kept over sosDenominator, and ESoS over esosDenominator */
+    final long sosDenominator;
+    final long esosDenominator;
+    /** what the sum of each player's opponents' scores is scaled by to give their SoS numerator */
+    final long[] sosScale;
+    /** what the sum of each player's opponents' SoS numerators is scaled by to give their ESoS */
+    final long[] esosScale;
+
+    /** widths of the fields in the packed ranking key, or false if the key doesn't fit a long */
+    final boolean packed;
+    final int sosBits;
+    final int esosBits;
+    final int nameBits;
+
+    /** open tables, in the order the engines should resolve them */
+    final int[] left;
+    final int[] right;
+    /** the open table each player is sitting at, or -1 if they are not playing */
+    final int[] table;
+
+    /** number of rounds in the tournament */
+    final int roundCount;
+
+    /**
+     * Interns a tournament from the parsed pairings.
+     * <p>
+     * Ids are handed out in the iteration order of the scores, so that summing over ids
+     * visits players in the same order the original standings did.
+     *
+     * @param opps the opponents of each player
+     * @param scores the reported score of each player
+     * @param free the open tables, keyed by left player
+     * @param roundCount the number of rounds in this tournament
+     */
+    Tournament(HashMap<String, TreeSet<String>> opps,
+	       HashMap<String, Integer> scores,
+	       HashMap<String, String> free,
+	       int roundCount) {
+	this.roundCount = roundCount;
+
+	var order = new ArrayList<String>(scores.keySet());
+	for(var name : opps.keySet())
+	    if(!scores.containsKey(name))
+		order.add(name);
+
+	int n = order.size();
+	names = order.toArray(new String[n]);
+	for(int i = 0; i < n; i++)
+	    ids.put(names[i], i);
+
+	var sorted = new TreeSet<String>(order);
+	nameRank = new int[n];
+	int rank = 0;
+	for(var name : sorted)
+	    nameRank[ids.get(name)] = rank++;
+
+	this.scores = new int[n];
+	for(var entry : scores.entrySet())
+	    this.scores[ids.get(entry.getKey())] = entry.getValue();
+
+	var opponents = new int[n][];
+	rounds = new int[n];
+	bye = new boolean[n];
+	for(int i = 0; i < n; i++) {
+	    var mine = opps.get(names[i]);
+	    bye[i] = names[i].equals(BYE);
+	    rounds[i] = roundCount;
+
+	    if(mine == null)
+		opponents[i] = new int[0];
+	    else {
+		if(mine.contains(BYE))
+		    rounds[i]--;
+
+		opponents[i] = mine.stream().mapToInt(ids::get).sorted().toArray();
+	    }
+	}
+
+	first = new int[n + 1];
+	opponent = flatten(opponents, first);
+
+	//SoS is (sum of opponent scores) / (3 * rounds), and ESoS is (sum of SoS) / rounds,
+	//so the lcm of every 3 * rounds (and then of every rounds) makes all of them whole
+	long sosLcm = 1, roundLcm = 1;
+	for(int i = 0; i < n; i++)
+	    if(rounds[i] > 0) {
+		sosLcm = lcm(sosLcm, rounds[i] * 3);
+		roundLcm = lcm(roundLcm, rounds[i]);
+	    }
+
+	sosDenominator = sosLcm;
+	esosDenominator = sosLcm * roundLcm;
+	sosScale = new long[n];
+	esosScale = new long[n];
+	for(int i = 0; i < n; i++)
+	    if(rounds[i] > 0) {
+		sosScale[i] = sosLcm / (rounds[i] * 3);
+		esosScale[i] = roundLcm / rounds[i];
+	    }
+
+	//the open tables are resolved in the order the old recursive walk picked them:
+	//copy the map, take the first entry, remove it, repeat
+	left = new int[free.size()];
+	right = new int[free.size()];
+	var remaining = free;
+	for(int i = 0; i < left.length; i++) {
+	    var next = new HashMap<String, String>(remaining);
+	    var first = next.entrySet().iterator().next();
+	    next.remove(first.getKey());
+
+	    left[i] = ids.get(first.getKey());
+	    right[i] = ids.get(first.getValue());
+	    remaining = next;
+	}
+
+	table = new int[n];
+	Arrays.fill(table, -1);
+	for(int i = 0; i < left.length; i++)
+	    table[left[i]] = table[right[i]] = i;
+
+	//size the packed key by the highest score and tiebreaks any outcome can give
+	var maxScore = new long[n];
+	var maxSos = new long[n];
+	long minScore = 0, topScore = 0, topSos = 0, topEsos = 0;
+	for(int i = 0; i < n; i++) {
+	    maxScore[i] = this.scores[i] + (table[i] >= 0 ? 6 : 0);
+	    minScore = Math.min(minScore, this.scores[i]);
+	    topScore = Math.max(topScore, maxScore[i]);
+	}
+	for(int i = 0; i < n; i++) {
+	    for(int e = first[i]; e < first[i+1]; e++)
+		maxSos[i] += maxScore[opponent[e]];
+
+	    maxSos[i] *= sosScale[i];
+	    topSos = Math.max(topSos, maxSos[i]);
+	}
+	for(int i = 0; i < n; i++) {
+	    long sum = 0;
+	    for(int e = first[i]; e < first[i+1]; e++)
+		if(!bye[opponent[e]])
+		    sum += maxSos[opponent[e]];
+
+	    topEsos = Math.max(topEsos, sum * esosScale[i]);
+	}
+
+	sosBits = bits(topSos);
+	esosBits = bits(topEsos);
+	nameBits = bits(n - 1);
+	packed = minScore >= 0 && bits(topScore) + sosBits + esosBits + nameBits <= 63;
+    }
+
+    private static long lcm(long a, long b) {
+	long x = a, y = b;
+	while(y != 0) {
+	    long r = x % y;
+	    x = y;
+	    y = r;
+	}
+
+	return a / x * b;
+    }
+
+    private static int bits(long value) {
+	return 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * Packs a list of rows into a single array.
+     *
+     * @param rows the rows to pack
+     * @param first filled with the start of each row, followed by the end of the last row
+     * @return the packed rows
+     */
+    private static int[] flatten(int[][] rows, int[] first) {
+	for(int i = 0; i < rows.length; i++)
+	    first[i+1] = first[i] + rows[i].length;
+
+	var packed = new int[first[rows.length]];
+	for(int i = 0; i < rows.length; i++)
+	    System.arraycopy(rows[i], 0, packed, first[i], rows[i].length);
+
+	return packed;
+    }
+
+    /**
+     * Gets the number of players (including the bye, if any) in this tournament.
+     *
+     * @return the number of interned players
+     */
+    int size() {
+	return names.length;
+    }
+
+    /**
+     * Gets the number of tables that have not yet reported a result.
+     *
+     * @return the number of open tables
+     */
+    int openTables() {
+	return left.length;
+    }
+
+    /**
+     * Finds the open table a player is sitting at.
+     *
+     * @param player the id of the player
+     * @return the index of the table, or -1 if the player is not playing
+     */
+    int tableOf(int player) {
+	return table[player];
+    }
+}
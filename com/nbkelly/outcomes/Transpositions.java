@@ -0,0 +1,145 @@
+package com.nbkelly.outcomes;
+
+/* imports */
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded memo of subtree tallies, keyed by the state of everything the subtree depends on.
+ * <p>
+ * Below a node, the walk only looks at the contenders still in the running, the seats left
+ * for them, and how their scores and tiebreaks move as the remaining tables are decided. Two
+ * nodes at the same depth that agree on all of that credit the same players with the same
+ * outcomes, however differently the tables above them went, so the second can replay what the
+ * first counted instead of walking again.
+ * <p>
+ * Entries are evicted least recently used first once the memo grows past its budget. Each
+ * engine needs its own memo, but copies made for parallel walks share their counters.
+ */
+class Transpositions {
+    /** the state of a node, packed into longs, with its hash worked out once */
+    static class State {
+	final long[] packed;
+	final int hash;
+
+	State(long[] packed) {
+	    this.packed = packed;
+	    hash = Arrays.hashCode(packed);
+	}
+
+	@Override public int hashCode() {
+	    return hash;
+	}
+
+	@Override public boolean equals(Object other) {
+	    return other instanceof State && Arrays.equals(packed, ((State)other).packed);
+	}
+    }
+
+    /**
+     * What a subtree credited to each contender at its root: the outcomes they made the cut
+     * in, and those outcomes split by the result at their table.
+     */
+    static class Entry {
+	final int[] players;
+	final long[] cut;
+	final long[] own;
+
+	Entry(int[] players, long[] cut, long[] own) {
+	    this.players = players;
+	    this.cut = cut;
+	    this.own = own;
+	}
+
+	/** rough size of the entry and its state in memory */
+	long bytes(State state) {
+	    return 96 + 8L * state.packed.length + 4L * players.length + 8L * cut.length
+		+ 8L * own.length;
+	}
+    }
+
+    /** memory the entries may take up, in bytes */
+    final long budget;
+    private long used = 0;
+    private final LinkedHashMap<State, Entry> entries;
+
+    /** lookups answered, lookups missed, and entries evicted, over every copy */
+    final LongAdder hits;
+    final LongAdder misses;
+    final LongAdder evictions;
+
+    /**
+     * Creates an empty memo.
+     *
+     * @param budget the memory the entries may take up, in bytes
+     */
+    Transpositions(long budget) {
+	this(budget, new LongAdder(), new LongAdder(), new LongAdder());
+    }
+
+    /**
+     * Creates an empty memo with the same budget as another, sharing its counters.
+     *
+     * @param other the memo to take the budget and counters from
+     */
+    Transpositions(Transpositions other) {
+	this(other.budget, other.hits, other.misses, other.evictions);
+    }
+
+    private Transpositions(long budget, LongAdder hits, LongAdder misses, LongAdder evictions) {
+	this.budget = budget;
+	this.hits = hits;
+	this.misses = misses;
+	this.evictions = evictions;
+
+	entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Looks up the tally of a subtree.
+     *
+     * @param state the state at the root of the subtree
+     * @return what the subtree credited, or null if it isn't remembered
+     */
+    Entry get(State state) {
+	var entry = entries.get(state);
+	if(entry == null)
+	    misses.increment();
+	else
+	    hits.increment();
+
+	return entry;
+    }
+
+    /**
+     * Remembers the tally of a subtree, evicting the least recently used entries if the memo is
+     * over budget.
+     *
+     * @param state the state at the root of the subtree
+     * @param entry what the subtree credited
+     */
+    void put(State state, Entry entry) {
+	used += entry.bytes(state);
+	var old = entries.put(state, entry);
+	if(old != null)
+	    used -= old.bytes(state);
+
+	//entries are kept in access order, so the eldest comes first
+	var it = entries.entrySet().iterator();
+	while(used > budget && it.hasNext()) {
+	    var eldest = it.next();
+	    used -= eldest.getValue().bytes(eldest.getKey());
+	    it.remove();
+	    evictions.increment();
+	}
+    }
+
+    /**
+     * Forgets every entry, for when the tables are reordered.
+     */
+    void clear() {
+	entries.clear();
+	used = 0;
+    }
+}
@@ -0,0 +1,69 @@
+#!/bin/bash
+# Checks reading tournaments with --cobra against the fixtures here: a saved copy and a stand-in
+# for cobr.ai must give the same odds as the pairings file, a second run must be told nothing
+# has changed and read the copy it cached, a change must be fetched, and a score that isn't a
+# whole number must be refused.
+#
+#   fixtures/cobra/check.sh [PORT]
+
+here=$(cd "$(dirname "$0")" && pwd)
+root=$(cd "$here/../.." && pwd)
+port=${1:-18765}
+work=$(mktemp -d)
+trap 'kill $standin 2>/dev/null; rm -rf "$work"' EXIT
+
+fail() {
+    echo "FAIL: $*"
+    exit 1
+}
+
+javac -d "$work/classes" -sourcepath "$root" "$root/com/nbkelly/outcomes/Outcomes.java" \
+    || fail "could not compile"
+outcomes() {
+    java -cp "$work/classes" com.nbkelly.outcomes.Outcomes -r 5 -cs 8 \
+	 --cobra-cache "$work/cache" "$@"
+}
+
+mkdir "$work/served"
+cp "$here/tournament.json" "$work/served/"
+python3 "$here/standin.py" "$port" "$work/served" 2> "$work/statuses" &
+standin=$!
+sleep 1
+
+outcomes -p "$here/tournament.txt" > "$work/pairings.txt" || fail "pairings file"
+outcomes --cobra "$here/tournament.json" > "$work/file.txt" || fail "saved copy"
+cmp -s "$work/pairings.txt" "$work/file.txt" || fail "the saved copy gave different odds"
+
+url=http://127.0.0.1:$port/tournament.json
+outcomes --cobra "$url" > "$work/fetched.txt" || fail "stand-in"
+cmp -s "$work/pairings.txt" "$work/fetched.txt" || fail "the stand-in gave different odds"
+
+outcomes --cobra "$url" -d 2 > "$work/cached.txt" 2>&1 || fail "second run"
+grep -q "the copy in the cache" "$work/cached.txt" || fail "the second run didn't read the cache"
+[ "$(tr '\n' ' ' < "$work/statuses")" = "200 304 " ] || fail "expected 200 then 304"
+
+python3 - "$work/served/tournament.json" <<'PYTHON'
+import json, sys
+doc = json.load(open(sys.argv[1]))
+#the first table still open in the last swiss round reports a split
+table = next(t for t in doc["rounds"][4] if t["player1"]["combinedScore"] is None)
+table["player1"]["combinedScore"] = table["player2"]["combinedScore"] = 3
+json.dump(doc, open(sys.argv[1], "w"))
+PYTHON
+outcomes --cobra "$url" -d 2 > "$work/changed.txt" 2>&1 || fail "changed run"
+grep -q "the copy in the cache" "$work/changed.txt" && fail "a change was read from the cache"
+[ "$(tail -1 "$work/statuses")" = "200" ] || fail "a change wasn't fetched"
+outcomes --cobra "$url" > "$work/recached.txt" || fail "run after the change"
+[ "$(tail -1 "$work/statuses")" = "304" ] || fail "the change wasn't cached"
+cmp -s "$work/recached.txt" "$work/pairings.txt" && fail "the change didn't change the odds"
+
+python3 - "$here/tournament.json" "$work/fraction.json" <<'PYTHON'
+import json, sys
+doc = json.load(open(sys.argv[1]))
+doc["rounds"][0][0]["player1"]["combinedScore"] = 5.5
+json.dump(doc, open(sys.argv[2], "w"))
+PYTHON
+outcomes --cobra "$work/fraction.json" > "$work/fraction.txt" 2>&1 && fail "a fraction was read"
+grep -q "expected a whole number" "$work/fraction.txt" || fail "a fraction wasn't refused"
+
+echo "ok"
@@ -0,0 +1,44 @@
+#!/usr/bin/env python3
+"""Stands in for cobr.ai: serves the files in a directory as JSON, with an ETag, answering
+304 when the client already has the current version. Each status sent is written to stderr.
+
+    python3 standin.py PORT DIRECTORY
+"""
+import hashlib
+import http.server
+import os
+import sys
+
+port, root = int(sys.argv[1]), sys.argv[2]
+
+class Handler(http.server.BaseHTTPRequestHandler):
+    def do_GET(self):
+        path = os.path.join(root, os.path.basename(self.path))
+        if not os.path.isfile(path):
+            self.answer(404)
+            return
+
+        data = open(path, 'rb').read()
+        tag = '"' + hashlib.sha1(data).hexdigest() + '"'
+        if self.headers.get('If-None-Match') == tag:
+            self.answer(304)
+            return
+
+        self.answer(200, tag, data)
+
+    def answer(self, status, tag=None, data=b''):
+        self.send_response(status)
+        if tag:
+            self.send_header('ETag', tag)
+        if status != 304:
+            self.send_header('Content-Type', 'application/json')
+            self.send_header('Content-Length', str(len(data)))
+        self.end_headers()
+        self.wfile.write(data)
+        sys.stderr.write('%d\n' % status)
+        sys.stderr.flush()
+
+    def log_message(self, *args):
+        pass
+
+http.server.ThreadingHTTPServer(('127.0.0.1', port), Handler).serve_forever()
@@ -0,0 +1,49 @@
+#!/bin/bash
+# Checks a tournament with too many open tables to count every outcome in a long: 100 players
+# with 40 tables open in the last of 5 rounds. Its odds must be sampled, and with one table
+# reported (39 open, which can just be counted) a walk cut short must give bounds. Either way,
+# every figure must be a percentage, and the share explored can't be negative.
+#
+#   fixtures/large/check.sh
+
+here=$(cd "$(dirname "$0")" && pwd)
+root=$(cd "$here/../.." && pwd)
+work=$(mktemp -d)
+trap 'rm -rf "$work"' EXIT
+
+fail() {
+    echo "FAIL: $*"
+    exit 1
+}
+
+javac -d "$work/classes" -sourcepath "$root" "$root/com/nbkelly/outcomes/Outcomes.java" \
+    || fail "could not compile"
+outcomes() {
+    java -cp "$work/classes" com.nbkelly.outcomes.Outcomes -r 5 -cs 10 --time-budget 2s "$@"
+}
+
+# every percentage printed is between 0 and 100
+percentages() {
+    grep -o -- '-\?[0-9.]*%' "$1" | tr -d '%' \
+	| awk '$1 < 0 || $1 > 100 { bad = 1 } END { exit bad }'
+}
+
+outcomes -p "$here/tournament.txt" > "$work/40.txt" || fail "40 open tables"
+grep -q "all outcomes, [0-9]* samples" "$work/40.txt" || fail "40 open tables weren't sampled"
+percentages "$work/40.txt" || fail "40 open tables gave odds that aren't percentages"
+
+#report the first open table as a split
+python3 - "$here/tournament.txt" "$work/39.txt" <<'PYTHON'
+import sys
+lines = open(sys.argv[1]).read().split('\n')
+for i in range(0, len(lines) - 3, 4):
+    if lines[i + 1] == '' and lines[i + 3] == '':
+        lines[i + 1] = lines[i + 3] = '3'
+        break
+open(sys.argv[2], 'w').write('\n'.join(lines))
+PYTHON
+outcomes -p "$work/39.txt" > "$work/39-odds.txt" || fail "39 open tables"
+grep -q "all outcomes, out of time" "$work/39-odds.txt" || fail "39 open tables weren't walked"
+percentages "$work/39-odds.txt" || fail "39 open tables gave odds that aren't percentages"
+
+echo "ok"